@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.benchmarks;
+
+import org.irmacard.credentials.CredentialsException;
+import org.irmacard.credentials.idemix.CredentialBuilder;
+import org.irmacard.credentials.idemix.IdemixCredential;
+import org.irmacard.credentials.idemix.IdemixIssuer;
+import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
+import org.irmacard.credentials.idemix.messages.IssueSignatureMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * The issuer and recipient sides of issuance. Each invocation uses a fresh commitment and signature, which are
+ * computed outside of the measurement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class IssuanceBenchmark {
+	private BigInteger context;
+	private BigInteger nonce1;
+	private IdemixIssuer issuer;
+
+	private CredentialBuilder builder;
+	private IssueCommitmentMessage commitment;
+	private IssueSignatureMessage signature;
+
+	@Setup(Level.Invocation)
+	public void setup(KeyState keys) throws CredentialsException {
+		Random rnd = new Random();
+		if (issuer == null) {
+			context = new BigInteger(keys.params.get_l_h(), rnd);
+			nonce1 = new BigInteger(keys.params.get_l_statzk(), rnd);
+			issuer = new IdemixIssuer(keys.pk, keys.sk, context);
+		}
+
+		BigInteger secret = new BigInteger(keys.params.get_l_m(), rnd);
+		builder = new CredentialBuilder(keys.pk, keys.attributes, context);
+		commitment = builder.commitToSecretAndProve(secret, nonce1);
+		signature = issuer.issueSignature(commitment, keys.attributes, nonce1);
+	}
+
+	@Benchmark
+	public IssueSignatureMessage issueSignature(KeyState keys) throws CredentialsException {
+		return issuer.issueSignature(commitment, keys.attributes, nonce1);
+	}
+
+	@Benchmark
+	public IdemixCredential constructCredential() throws CredentialsException {
+		return builder.constructCredential(signature);
+	}
+}
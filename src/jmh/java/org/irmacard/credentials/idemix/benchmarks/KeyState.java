@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.benchmarks;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.IdemixSecretKey;
+import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.info.IdemixKeyStore;
+import org.irmacard.credentials.idemix.info.IdemixKeyStoreDeserializer;
+import org.irmacard.credentials.idemix.util.Randomness;
+import org.irmacard.credentials.info.DescriptionStore;
+import org.irmacard.credentials.info.DescriptionStoreDeserializer;
+import org.irmacard.credentials.info.IssuerIdentifier;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>The Idemix key-pair and attributes that the benchmarks operate on.</p>
+ *
+ * <p>The key-pair is specified by the {@code key} parameter, as the issuer identifier and the key counter
+ * separated by a slash, and is loaded from the irma_configuration folder in {@code src/test/resources} or,
+ * if set, from the folder in the {@code irma.benchmark.configuration} system property. The test configuration only
+ * contains 1024-bit keys; to benchmark 2048 or 4096-bit keys, point this property to a configuration that contains
+ * private keys of that size and pass them using {@code -p key=...}.</p>
+ *
+ * <p>If the {@code irma.benchmark.seed} system property is set, all randomness is derived from this seed
+ * (see {@link Randomness#setSeed(long)}), so that repeated runs operate on the same numbers.</p>
+ */
+@State(Scope.Benchmark)
+public class KeyState {
+	/** Issuer identifier and counter of the key-pair */
+	@Param({"irma-demo.MijnOverheid/1"})
+	public String key;
+
+	/** Amount of attributes, not counting the secret key */
+	@Param({"1", "3", "5"})
+	public int attributeCount;
+
+	public IdemixPublicKey pk;
+	public IdemixSecretKey sk;
+	public IdemixSystemParameters params;
+	public List<BigInteger> attributes;
+
+	private static boolean initialized = false;
+
+	@Setup
+	public void setup() throws Exception {
+		initialize();
+
+		int separator = key.lastIndexOf('/');
+		IssuerIdentifier issuer = new IssuerIdentifier(key.substring(0, separator));
+		int counter = Integer.parseInt(key.substring(separator + 1));
+		pk = IdemixKeyStore.getInstance().getPublicKey(issuer, counter);
+		sk = IdemixKeyStore.getInstance().getSecretKey(issuer, counter);
+		params = pk.getSystemParameters();
+
+		if (attributeCount >= pk.getGeneratorsR().size())
+			throw new IllegalArgumentException("Key " + key + " supports at most "
+					+ (pk.getGeneratorsR().size() - 1) + " attributes");
+
+		Random rnd = new Random(attributeCount);
+		attributes = new ArrayList<>(attributeCount);
+		for (int i = 0; i < attributeCount; i++)
+			attributes.add(new BigInteger(params.get_l_m() - 1, rnd));
+	}
+
+	/** Attribute indices 1 up to and including the amount of attributes */
+	public List<Integer> allAttributeIndices() {
+		List<Integer> indices = new ArrayList<>(attributeCount);
+		for (int i = 1; i <= attributeCount; i++)
+			indices.add(i);
+		return indices;
+	}
+
+	private static synchronized void initialize() throws Exception {
+		if (initialized)
+			return;
+
+		String path = System.getProperty("irma.benchmark.configuration");
+		URI core = path != null
+				? new File(path).toURI()
+				: KeyState.class.getClassLoader().getResource("test_configuration/").toURI();
+		DescriptionStore.initialize(new DescriptionStoreDeserializer(core));
+		IdemixKeyStore.initialize(new IdemixKeyStoreDeserializer(core));
+
+		String seed = System.getProperty("irma.benchmark.seed");
+		if (seed != null)
+			Randomness.setSeed(Long.parseLong(seed));
+
+		initialized = true;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.benchmarks;
+
+import org.irmacard.credentials.idemix.CLSignature;
+import org.irmacard.credentials.idemix.IdemixCredential;
+import org.irmacard.credentials.idemix.proofs.ProofList;
+import org.irmacard.credentials.idemix.proofs.ProofListBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Building and verifying disclosure proofs, of a single credential (unbound) and of two credentials
+ * sharing the same secret key (bound). Half of the attributes of each credential are disclosed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProofListBenchmark {
+	private IdemixCredential credential1;
+	private IdemixCredential credential2;
+	private List<Integer> disclosed;
+
+	private BigInteger context;
+	private BigInteger nonce;
+
+	private ProofList unbound;
+	private ProofList bound;
+
+	@Setup
+	public void setup(KeyState keys) {
+		Random rnd = new Random();
+		BigInteger secret = new BigInteger(keys.params.get_l_m(), rnd);
+		credential1 = issue(keys, secret);
+		credential2 = issue(keys, secret);
+		disclosed = keys.allAttributeIndices().subList(0, (keys.attributeCount + 1) / 2);
+
+		context = new BigInteger(keys.params.get_l_h(), rnd);
+		nonce = new BigInteger(keys.params.get_l_statzk(), rnd);
+
+		unbound = buildUnbound();
+		bound = buildBound();
+	}
+
+	private static IdemixCredential issue(KeyState keys, BigInteger secret) {
+		List<BigInteger> ms = new ArrayList<>(keys.attributes.size() + 1);
+		ms.add(secret);
+		ms.addAll(keys.attributes);
+		CLSignature signature = CLSignature.signMessageBlock(keys.sk, keys.pk, ms);
+		return new IdemixCredential(keys.pk, ms, signature);
+	}
+
+	@Benchmark
+	public ProofList buildUnbound() {
+		return new ProofListBuilder(context, nonce)
+				.addProofD(credential1, disclosed)
+				.build();
+	}
+
+	@Benchmark
+	public ProofList buildBound() {
+		return new ProofListBuilder(context, nonce)
+				.addProofD(credential1, disclosed)
+				.addProofD(credential2, disclosed)
+				.build();
+	}
+
+	@Benchmark
+	public boolean verifyUnbound() {
+		return unbound.verify(context, nonce, false);
+	}
+
+	@Benchmark
+	public boolean verifyBound() {
+		return bound.verify(context, nonce, true);
+	}
+}
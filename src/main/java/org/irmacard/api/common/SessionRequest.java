@@ -3,12 +3,12 @@ package org.irmacard.api.common;
 import org.irmacard.api.common.util.GsonUtil;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.Randomness;
 import org.irmacard.credentials.info.CredentialIdentifier;
 import org.irmacard.credentials.info.IssuerIdentifier;
 
 import java.io.Serializable;
 import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -67,7 +67,7 @@ public abstract class SessionRequest implements Serializable {
 	}
 
 	public static BigInteger generateNonce(IdemixSystemParameters params) {
-		return new BigInteger(params.get_l_statzk(), new SecureRandom());
+		return new BigInteger(params.get_l_statzk(), Randomness.get());
 	}
 
 	public BigInteger generateContext() {
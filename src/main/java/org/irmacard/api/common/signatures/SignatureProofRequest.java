@@ -69,7 +69,7 @@ public class SignatureProofRequest extends DisclosureProofRequest {
             throw new IllegalArgumentException("Other message types than string are not supported yet!");
 
         BigInteger messageHash = Crypto.sha256Hash(message.getBytes());
-        return Crypto.sha256Hash(Crypto.asn1Encode(nonce, messageHash));
+        return Crypto.asn1Hash(nonce, messageHash);
     }
 
     /**
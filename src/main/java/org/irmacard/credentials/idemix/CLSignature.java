@@ -35,6 +35,10 @@ import java.util.List;
 import java.security.SecureRandom;
 
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
+import org.irmacard.credentials.idemix.util.ModularProduct;
+import org.irmacard.credentials.idemix.util.PrimePool;
+import org.irmacard.credentials.idemix.util.Randomness;
 
 /**
  * Represents a bare Camenisch-Lysyanskaya signature. The block of messages, or
@@ -79,7 +83,7 @@ public class CLSignature {
 	 *            a block of messages
 	 */
 	public static CLSignature signMessageBlock(IdemixSecretKey sk, IdemixPublicKey pk, List<BigInteger> ms) {
-		List<BigInteger> Rs = pk.getGeneratorsR();
+		List<FixedBaseTable> Rs = pk.getFixedBasesR();
 		return signMessageBlockAndCommitment(sk, pk, BigInteger.ONE, ms, Rs);
 	}
 
@@ -101,36 +105,88 @@ public class CLSignature {
 	 */
 	public static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms) {
 		// Skip the first generator
-		List<BigInteger> Rs = pk.getGeneratorsR().subList(1, pk.getGeneratorsR().size());
+		List<FixedBaseTable> Rs = pk.getFixedBasesR().subList(1, pk.getGeneratorsR().size());
 		return signMessageBlockAndCommitment(sk, pk, U, ms, Rs);
 	}
 
-	protected static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, List<BigInteger> Rs) {
-		BigInteger n = pk.getModulus();
-		IdemixSystemParameters params = pk.getSystemParameters();
+	protected static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U, List<BigInteger> ms, List<FixedBaseTable> Rs) {
+		return signMessageBlockAndCommitment(sk, pk, U, ms, Rs, precompute(sk, pk));
+	}
 
-		BigInteger R = Crypto.representToBases(Rs, ms, n, params.get_l_m());
+	/**
+	 * As {@link #signMessageBlockAndCommitment(IdemixSecretKey, IdemixPublicKey, BigInteger, List)}, but using
+	 * the specified precomputed randomness, which must have been computed using the same key-pair and must not be
+	 * used for any other signature.
+	 */
+	public static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U,
+			List<BigInteger> ms, Precomputation precomputation) {
+		// Skip the first generator
+		List<FixedBaseTable> Rs = pk.getFixedBasesR().subList(1, pk.getGeneratorsR().size());
+		return signMessageBlockAndCommitment(sk, pk, U, ms, Rs, precomputation);
+	}
 
-		SecureRandom rnd = new SecureRandom();
+	private static CLSignature signMessageBlockAndCommitment(IdemixSecretKey sk, IdemixPublicKey pk, BigInteger U,
+			List<BigInteger> ms, List<FixedBaseTable> Rs, Precomputation precomputation) {
+		BigInteger n = pk.getModulus();
+		IdemixSystemParameters params = pk.getSystemParameters();
 
-		BigInteger v_tilde = new BigInteger(params.get_l_v() - 1, rnd);
-		BigInteger two_l_v = new BigInteger("2").pow(params.get_l_v() - 1);
-		BigInteger v = two_l_v.add(v_tilde);
+		BigInteger R = Crypto.representToBases(Rs, ms, params.get_l_m());
 
 		// Q = inv( S^v * R * U) * Z
-		BigInteger numerator = pk.getGeneratorS().modPow(v, n).multiply(R).multiply(U).mod(n);
+		BigInteger numerator = new ModularProduct(n)
+				.multiply(precomputation.Sv)
+				.multiply(R)
+				.multiply(U)
+				.get();
 		BigInteger Q = pk.getGeneratorZ().multiply(numerator.modInverse(n)).mod(n);
 
-		BigInteger e = Crypto.probablyPrimeInBitRange(params.get_l_e() - 1,
-				params.get_l_e_prime() - 1);
-
 		// TODO: this is probably open to side channel attacks, maybe use a
 		// safe (raw) RSA signature?
+		BigInteger A = sk.modPow(Q, precomputation.e_inv);
+
+		return new CLSignature(A, precomputation.e, precomputation.v);
+	}
+
+	/**
+	 * Computes the parts of a signature that do not depend on the messages or the commitment: the randomizer v,
+	 * S^v, the prime e and its inverse modulo p'q'. These can be computed in advance, after which
+	 * {@link #signMessageBlockAndCommitment(IdemixSecretKey, IdemixPublicKey, BigInteger, List, Precomputation)}
+	 * only needs one exponentiation.
+	 */
+	public static Precomputation precompute(IdemixSecretKey sk, IdemixPublicKey pk) {
+		IdemixSystemParameters params = pk.getSystemParameters();
+
+		SecureRandom rnd = Randomness.get();
+
+		BigInteger v_tilde = new BigInteger(params.get_l_v() - 1, rnd);
+		BigInteger two_l_v = new BigInteger("2").pow(params.get_l_v() - 1);
+		BigInteger v = two_l_v.add(v_tilde);
+		BigInteger Sv = pk.getFixedBaseS().pow(v);
+
+		BigInteger e = PrimePool.get(params.get_l_e() - 1, params.get_l_e_prime() - 1).take();
 		BigInteger order = sk.get_p_prime_q_prime();
 		BigInteger e_inv = e.modInverse(order);
-		BigInteger A = Q.modPow(e_inv, n);
 
-		return new CLSignature(A, e, v);
+		return new Precomputation(v, Sv, e, e_inv);
+	}
+
+	/**
+	 * The parts of a signature that do not depend on the signed messages (see
+	 * {@link #precompute(IdemixSecretKey, IdemixPublicKey)}). Contains secrets of the issuer, and each instance
+	 * must be used for at most one signature.
+	 */
+	public static final class Precomputation {
+		private final BigInteger v;
+		private final BigInteger Sv;
+		private final BigInteger e;
+		private final BigInteger e_inv;
+
+		private Precomputation(BigInteger v, BigInteger Sv, BigInteger e, BigInteger e_inv) {
+			this.v = v;
+			this.Sv = Sv;
+			this.e = e;
+			this.e_inv = e_inv;
+		}
 	}
 
 	public boolean verify(IdemixPublicKey pk, List<BigInteger> ms) {
@@ -151,21 +207,22 @@ public class CLSignature {
 		}
 
 		// Q = A^e * R * S^v
-		BigInteger R = Crypto.representToBases(pk.getGeneratorsR(), ms, n, params.get_l_m());
+		BigInteger R = Crypto.representToBases(pk.getFixedBasesR(), ms, params.get_l_m());
+
+		ModularProduct Q = new ModularProduct(n)
+				.multiplyPow(this.A, e)
+				.multiply(R)
+				.multiplyFixedPow(pk.getFixedBaseS(), this.v);
 
 		// Add in the public_sks
 		if(public_sks != null) {
 			for(BigInteger public_sk : public_sks) {
-				R = R.multiply(public_sk).mod(n);
+				Q.multiply(public_sk);
 			}
 		}
 
-		BigInteger Ae = this.A.modPow(e, n);
-		BigInteger Sv = pk.getGeneratorS().modPow(this.v, n);
-		BigInteger Q = Ae.multiply(R).multiply(Sv).mod(n);
-
 
-		return pk.getGeneratorZ().equals(Q);
+		return pk.getGeneratorZ().equals(Q.get());
 	}
 
 	/**
@@ -176,10 +233,13 @@ public class CLSignature {
 		IdemixSystemParameters params = pk.getSystemParameters();
 		BigInteger n = pk.getModulus();
 
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = Randomness.get();
 
 		BigInteger randomizer = new BigInteger(params.get_l_r_a(), rnd);
-		BigInteger A_prime = A.multiply(pk.getGeneratorS().modPow(randomizer, n)).mod(n);
+		BigInteger A_prime = new ModularProduct(n)
+				.multiply(A)
+				.multiplyFixedPow(pk.getFixedBaseS(), randomizer)
+				.get();
 		BigInteger v_prime = v.subtract(e.multiply(randomizer));
 
 		return new CLSignature(A_prime, e, v_prime);
@@ -31,8 +31,8 @@
 package org.irmacard.credentials.idemix;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.List;
-import java.security.SecureRandom;
 import java.util.Vector;
 
 import org.irmacard.credentials.CredentialsException;
@@ -42,6 +42,8 @@ import org.irmacard.credentials.idemix.proofs.ProofListBuilder;
 import org.irmacard.credentials.idemix.proofs.ProofU;
 import org.irmacard.credentials.idemix.proofs.ProofUBuilder;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
+import org.irmacard.credentials.idemix.util.Randomness;
 
 public class CredentialBuilder {
 	// State
@@ -152,9 +154,9 @@ public class CredentialBuilder {
 			v_prime = Crypto.randomUnsignedInteger(params.get_l_v_prime());
 
 			// U = S^{v_prime} * R_0^{s}
-			BigInteger Sv = pk.getGeneratorS().modPow(v_prime, n);
-			BigInteger R0s = pk.getGeneratorR(0).modPow(s, n);
-			U = Sv.multiply(R0s).mod(n);
+			U = FixedBaseTable.multiPow(
+					Arrays.asList(pk.getFixedBaseS(), pk.getFixedBaseR(0)),
+					Arrays.asList(v_prime, s));
 		}
 
 		return U;
@@ -166,7 +168,7 @@ public class CredentialBuilder {
 	}
 
 	public static BigInteger createReceiverNonce(IdemixSystemParameters params) {
-		return new BigInteger(params.get_l_statzk(), new SecureRandom());
+		return new BigInteger(params.get_l_statzk(), Randomness.get());
 	}
 
 	public static BigInteger createReceiverNonce(IdemixPublicKey pk) {
@@ -34,6 +34,7 @@ import org.irmacard.credentials.Attributes;
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
 import org.irmacard.credentials.idemix.proofs.ProofD;
 import org.irmacard.credentials.idemix.proofs.ProofDBuilder;
+import org.irmacard.credentials.idemix.proofs.ProofDPrecomputationPool;
 import org.irmacard.credentials.info.CredentialIdentifier;
 import org.irmacard.credentials.info.KeyException;
 
@@ -54,6 +55,8 @@ public class IdemixCredential {
 
 	private transient int hashCode = 0;
 
+	private transient volatile ProofDPrecomputationPool precomputations;
+
 	public IdemixCredential(IdemixPublicKey issuer_pk,
 			List<BigInteger> attributes, CLSignature signature) {
 		this.issuer_pk = issuer_pk;
@@ -113,6 +116,40 @@ public class IdemixCredential {
 		return (ProofD) builder.createProof(context, nonce1);
 	}
 
+	/**
+	 * Start precomputing, in the background, the parts of disclosure proofs of this credential that do not
+	 * depend on the challenge, so that disclosing becomes much faster. Does nothing if this was already enabled.
+	 *
+	 * @param capacity
+	 *            Amount of precomputations to keep in store
+	 * @return the pool containing the precomputations
+	 */
+	public synchronized ProofDPrecomputationPool enablePrecomputation(int capacity) {
+		if (precomputations == null) {
+			precomputations = new ProofDPrecomputationPool(this, capacity);
+			precomputations.start();
+		}
+		return precomputations;
+	}
+
+	/**
+	 * Stop precomputing parts of disclosure proofs of this credential.
+	 */
+	public synchronized void disablePrecomputation() {
+		if (precomputations != null) {
+			precomputations.stop();
+			precomputations = null;
+		}
+	}
+
+	/**
+	 * The pool of precomputations for disclosure proofs of this credential, or null if this is not enabled
+	 * (see {@link #enablePrecomputation(int)}).
+	 */
+	public ProofDPrecomputationPool getPrecomputationPool() {
+		return precomputations;
+	}
+
 	public int getNrAttributes() {
 		return attributes.size();
 	}
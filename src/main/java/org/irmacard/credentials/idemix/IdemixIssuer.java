@@ -46,6 +46,8 @@ public class IdemixIssuer {
 
 	private BigInteger context;
 
+	private IssuanceReservoir reservoir;
+
 	public IdemixIssuer(IdemixPublicKey pk, IdemixSecretKey sk,
 			BigInteger context) {
 
@@ -55,6 +57,20 @@ public class IdemixIssuer {
 		this.context = context;
 	}
 
+	/**
+	 * Constructs an issuer that takes the message-independent parts of its
+	 * signatures from the specified reservoir, which must belong to the same
+	 * key-pair.
+	 */
+	public IdemixIssuer(IdemixPublicKey pk, IdemixSecretKey sk,
+			BigInteger context, IssuanceReservoir reservoir) {
+		this(pk, sk, context);
+
+		if (!reservoir.getPublicKey().getModulus().equals(pk.getModulus()))
+			throw new IllegalArgumentException("Reservoir belongs to a different key");
+		this.reservoir = reservoir;
+	}
+
 	/**
 	 * Returns a signature and corresponding proof on the given attributes. As
 	 * per the protocol, it will include the commitment U into the signature.
@@ -141,7 +157,10 @@ public class IdemixIssuer {
 	protected CLSignature signCommitmentAndAttributes(BigInteger U,
 			List<BigInteger> attrs) {
 
-		return CLSignature.signMessageBlockAndCommitment(sk, pk, U, attrs);
+		if (reservoir != null)
+			return CLSignature.signMessageBlockAndCommitment(sk, pk, U, attrs, reservoir.take());
+		else
+			return CLSignature.signMessageBlockAndCommitment(sk, pk, U, attrs);
 	}
 
 	/**
@@ -157,17 +176,17 @@ public class IdemixIssuer {
 	 * @return A proof of knowledge of e^{-1}
 	 */
 	public ProofS proveSignature(CLSignature signature, BigInteger n_2) {
-		BigInteger n = pk.getModulus();
-		BigInteger Q = signature.getA().modPow(signature.get_e(), n);
+		// As we know the factorization of n, we exponentiate modulo p and q separately
+		BigInteger Q = sk.modPow(signature.getA(), signature.get_e());
 		BigInteger group_modulus = sk.get_p_prime_q_prime();
 		BigInteger e_inverse = signature.get_e().modInverse(group_modulus);
 
 		BigInteger e_commit = Crypto
 				.randomElementMultiplicativeGroup(group_modulus);
-		BigInteger A_commit = Q.modPow(e_commit, n);
+		BigInteger A_commit = sk.modPow(Q, e_commit);
 
-		BigInteger c = Crypto.sha256Hash(Crypto.asn1Encode(context, Q,
-				signature.getA(), n_2, A_commit));
+		BigInteger c = Crypto.asn1Hash(context, Q,
+				signature.getA(), n_2, A_commit);
 
 		BigInteger e_response = e_commit.subtract(c.multiply(e_inverse))
 				.mod(group_modulus);
@@ -31,13 +31,13 @@
 package org.irmacard.credentials.idemix;
 
 import org.irmacard.credentials.PublicKey;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
 import org.irmacard.credentials.info.ConfigurationParser;
+import org.irmacard.credentials.info.ConfigurationReader;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.IssuerDescription;
 import org.irmacard.credentials.info.IssuerIdentifier;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
@@ -57,6 +57,11 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 	private List<BigInteger> R;
 
 	private transient IdemixSystemParameters systemParameters;
+
+	// Precomputation tables for the generators, created when first needed
+	private transient volatile FixedBaseTable tableS;
+	private transient volatile FixedBaseTable tableZInverse;
+	private transient volatile List<FixedBaseTable> tablesR;
 	private IssuerIdentifier issuer;
 
 	private int counter;
@@ -82,19 +87,23 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 
 	public void set_n(BigInteger n) {
 		this.n = n;
+		clearTables();
 	}
 
 	public void set_Z(BigInteger Z) {
 		this.Z = Z;
+		clearTables();
 	}
 
 	public void set_S(BigInteger S) {
 		this.S = S;
+		clearTables();
 	}
 
 	public void set_Ri(int i, BigInteger Ri) {
 		System.out.println("Setting R" + i + ": " + Ri);
 		R.set(i, Ri);
+		clearTables();
 	}
 
 	/**
@@ -104,8 +113,7 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 	 */
 	public IdemixPublicKey(URI file) throws InfoException {
 		super();
-		Document d = parse(file);
-		init(d);
+		init(read(file));
 	}
 
 	/**
@@ -115,8 +123,7 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 	 */
 	public IdemixPublicKey(InputStream stream) throws InfoException {
 		super();
-		Document d = parse(stream);
-		init(d);
+		init(read(stream));
 	}
 
 	public IdemixPublicKey(String xml) throws InfoException {
@@ -134,21 +141,46 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 		this.issuer = issuer;
 	}
 
-	private void init(Document d) throws InfoException {
-		n = new BigInteger(getFirstTagText(d, "n"));
-		Z = new BigInteger(getFirstTagText(d, "Z"));
-		S = new BigInteger(getFirstTagText(d, "S"));
-
-		counter = Integer.valueOf(getFirstTagText(d, "Counter"));
-		expiryDate = new Date(Long.valueOf(getFirstTagText(d, "ExpiryDate")) * 1000);
-
-		Element bases = ((Element) d.getElementsByTagName("Bases").item(0));
-		int num_bases = Integer.parseInt(bases.getAttribute("num"));
-		R = new Vector<>();
-		for(int i = 0; i < num_bases; i++) {
-			String base = bases.getElementsByTagName("Base_" + i).item(0).getTextContent().trim();
-			R.add(new BigInteger(base));
+	private void init(ConfigurationReader reader) throws InfoException {
+		String counterText = null, expiryText = null;
+
+		try {
+			for (String tag; (tag = reader.nextElement()) != null; ) {
+				switch (tag) {
+					case "n": n = new BigInteger(reader.readText()); break;
+					case "Z": Z = new BigInteger(reader.readText()); break;
+					case "S": S = new BigInteger(reader.readText()); break;
+					case "Counter": counterText = reader.readText(); break;
+					case "ExpiryDate": expiryText = reader.readText(); break;
+					case "Bases":
+						int num_bases = Integer.parseInt(reader.getAttribute("num"));
+						R = new ArrayList<>(Collections.<BigInteger>nCopies(num_bases, null));
+						int depth = reader.getDepth();
+						for (String base; (base = reader.nextElement(depth)) != null; ) {
+							if (!base.startsWith("Base_"))
+								continue;
+							int i = Integer.parseInt(base.substring("Base_".length()));
+							if (i < 0 || i >= num_bases)
+								throw new InfoException("Tag <" + base + "> out of range");
+							R.set(i, new BigInteger(reader.readText()));
+						}
+						break;
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new InfoException("Public key contains a malformed number", e);
+		} finally {
+			reader.close();
 		}
+
+		require(n, "n");
+		require(Z, "Z");
+		require(S, "S");
+		counter = Integer.valueOf(require(counterText, "Counter"));
+		expiryDate = new Date(Long.valueOf(require(expiryText, "ExpiryDate")) * 1000);
+		require(R, "Bases");
+		for (int i = 0; i < R.size(); i++)
+			require(R.get(i), "Base_" + i);
 	}
 
 	public int getBitsize() {
@@ -175,6 +207,70 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 		return R;
 	}
 
+	/**
+	 * Returns the precomputation table for S, which supports exponents up to the size of the v_response in
+	 * disclosure proofs.
+	 */
+	public FixedBaseTable getFixedBaseS() {
+		FixedBaseTable table = tableS;
+		if (table == null) {
+			synchronized (this) {
+				if (tableS == null)
+					tableS = new FixedBaseTable(S, n, getSystemParameters().get_l_v_commit() + 1);
+				table = tableS;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the precomputation table for the inverse of Z, which supports exponents up to the size of the
+	 * challenge. Verifiers need Z^{-c}, which using this table costs no modular inversion.
+	 */
+	public FixedBaseTable getFixedBaseZInverse() {
+		FixedBaseTable table = tableZInverse;
+		if (table == null) {
+			synchronized (this) {
+				if (tableZInverse == null)
+					tableZInverse = new FixedBaseTable(Z.modInverse(n), n, getSystemParameters().get_l_h() + 1);
+				table = tableZInverse;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the precomputation table for R_i, which supports exponents up to the size of the responses
+	 * for attributes and the secret key in disclosure proofs.
+	 */
+	public FixedBaseTable getFixedBaseR(int i) {
+		return getFixedBasesR().get(i);
+	}
+
+	public List<FixedBaseTable> getFixedBasesR() {
+		List<FixedBaseTable> tables = tablesR;
+		if (tables == null) {
+			synchronized (this) {
+				if (tablesR == null) {
+					IdemixSystemParameters params = getSystemParameters();
+					int maxBits = Math.max(params.get_l_m_commit(), params.get_l_s_commit()) + 2;
+					List<FixedBaseTable> list = new ArrayList<>(R.size());
+					for (BigInteger Ri : R)
+						list.add(new FixedBaseTable(Ri, n, maxBits));
+					tablesR = Collections.unmodifiableList(list);
+				}
+				tables = tablesR;
+			}
+		}
+		return tables;
+	}
+
+	private synchronized void clearTables() {
+		tableS = null;
+		tableZInverse = null;
+		tablesR = null;
+	}
+
 	public IdemixSystemParameters getSystemParameters() {
 		if (systemParameters == null) {
 			try {
@@ -204,6 +300,10 @@ public class IdemixPublicKey extends ConfigurationParser implements PublicKey {
 		return expiryDate;
 	}
 
+	public void setExpiryDate(Date expiryDate) {
+		this.expiryDate = expiryDate;
+	}
+
 	public boolean isValid() {
 		return isValidOn(Calendar.getInstance().getTime());
 	}
@@ -34,9 +34,10 @@ import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.URI;
 
+import org.irmacard.credentials.idemix.util.Arithmetic;
 import org.irmacard.credentials.info.ConfigurationParser;
+import org.irmacard.credentials.info.ConfigurationReader;
 import org.irmacard.credentials.info.InfoException;
-import org.w3c.dom.Document;
 
 /**
  * Represents an Idemix private key
@@ -52,6 +53,9 @@ public class IdemixSecretKey extends ConfigurationParser {
 	private BigInteger p_prime;
 	private BigInteger q_prime;
 
+	// q^{-1} mod p, for recombining results modulo p and q using the Chinese remainder theorem
+	private transient volatile BigInteger q_inverse;
+
 	public IdemixSecretKey(BigInteger p, BigInteger q) throws InfoException {
 		super();
 
@@ -69,8 +73,7 @@ public class IdemixSecretKey extends ConfigurationParser {
 	 */
 	public IdemixSecretKey(URI file) throws InfoException {
 		super();
-		Document d = parse(file);
-		init(d);
+		init(read(file));
 	}
 
 	/**
@@ -80,15 +83,29 @@ public class IdemixSecretKey extends ConfigurationParser {
 	 */
 	public IdemixSecretKey(InputStream stream) throws InfoException {
 		super();
-		Document d = parse(stream);
-		init(d);
+		init(read(stream));
 	}
 
-	private void init(Document d) throws InfoException {
-		p = new BigInteger(getFirstTagText(d, "p"));
-		q = new BigInteger(getFirstTagText(d, "q"));
-		p_prime = new BigInteger(getFirstTagText(d, "pPrime"));
-		q_prime = new BigInteger(getFirstTagText(d, "qPrime"));
+	private void init(ConfigurationReader reader) throws InfoException {
+		try {
+			for (String tag; (tag = reader.nextElement()) != null; ) {
+				switch (tag) {
+					case "p": p = new BigInteger(reader.readText()); break;
+					case "q": q = new BigInteger(reader.readText()); break;
+					case "pPrime": p_prime = new BigInteger(reader.readText()); break;
+					case "qPrime": q_prime = new BigInteger(reader.readText()); break;
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new InfoException("Secret key contains a malformed number", e);
+		} finally {
+			reader.close();
+		}
+
+		require(p, "p");
+		require(q, "q");
+		require(p_prime, "pPrime");
+		require(q_prime, "qPrime");
 	}
 
 	public BigInteger get_p() {
@@ -110,4 +127,34 @@ public class IdemixSecretKey extends ConfigurationParser {
 	public BigInteger get_p_prime_q_prime() {
 		return p_prime.multiply(q_prime);
 	}
+
+	/**
+	 * Computes base^exponent mod pq, i.e., modulo the modulus of the corresponding public key. Using the
+	 * factorization, the exponentiation is done separately modulo p and modulo q with exponents reduced
+	 * modulo p-1 and q-1, after which the results are recombined using the Chinese remainder theorem.
+	 * As these exponentiations involve numbers of half the size, this is about four times faster than
+	 * exponentiating modulo pq directly.
+	 *
+	 * @param base A number coprime to pq
+	 * @param exponent The exponent, which may be negative
+	 * @return base^exponent mod pq
+	 */
+	public BigInteger modPow(BigInteger base, BigInteger exponent) {
+		BigInteger one = BigInteger.ONE;
+		BigInteger result_p = Arithmetic.modPowSecure(base.mod(p), exponent.mod(p.subtract(one)), p);
+		BigInteger result_q = Arithmetic.modPowSecure(base.mod(q), exponent.mod(q.subtract(one)), q);
+
+		// result = result_q + q * ((result_p - result_q) * q^{-1} mod p)
+		BigInteger h = result_p.subtract(result_q).multiply(get_q_inverse()).mod(p);
+		return result_q.add(h.multiply(q));
+	}
+
+	private BigInteger get_q_inverse() {
+		BigInteger inverse = q_inverse;
+		if (inverse == null) {
+			inverse = q.modInverse(p);
+			q_inverse = inverse;
+		}
+		return inverse;
+	}
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.irmacard.credentials.idemix.util.BackgroundFiller;
+
+/**
+ * <p>A bounded store of {@link CLSignature.Precomputation}s for a single issuer key-pair. Most of the work of
+ * issuing a signature (choosing v and computing S^v, and generating the prime e and its inverse) does not depend on
+ * the attributes or the commitment of the recipient, so it can be done in advance, either by calling
+ * {@link #fill()} when the issuer is idle or in the background (see {@link #start()}). An
+ * {@link IdemixIssuer} that is constructed with a reservoir then only needs a single exponentiation per signature
+ * (see {@link IdemixIssuer#IdemixIssuer(IdemixPublicKey, IdemixSecretKey, java.math.BigInteger, IssuanceReservoir)}).</p>
+ *
+ * <p>If the reservoir is empty when a signature is issued, the precomputation is done inline; the number of times
+ * this happened is available from {@link #getDepletedCount()}.</p>
+ *
+ * <p>The reservoir contains secrets of the issuer, so it should be kept as carefully as the secret key itself.
+ * Instances are thread-safe, and should be shared by all issuers using the same key-pair.</p>
+ */
+public class IssuanceReservoir {
+	private final IdemixPublicKey pk;
+	private final IdemixSecretKey sk;
+	private final BlockingQueue<CLSignature.Precomputation> queue;
+
+	private final AtomicLong depleted = new AtomicLong();
+
+	private final BackgroundFiller filler;
+
+	public IssuanceReservoir(IdemixPublicKey pk, IdemixSecretKey sk, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive");
+
+		this.pk = pk;
+		this.sk = sk;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.filler = new BackgroundFiller(new BackgroundFiller.Target() {
+			@Override public boolean needsMore() {
+				return queue.remainingCapacity() > 0;
+			}
+			@Override public void fillOne() {
+				queue.offer(CLSignature.precompute(IssuanceReservoir.this.sk, IssuanceReservoir.this.pk));
+			}
+		}, 1);
+	}
+
+	public IdemixPublicKey getPublicKey() {
+		return pk;
+	}
+
+	/**
+	 * Fills the reservoir up to its capacity, in the calling thread.
+	 * @return the amount of precomputations that was added
+	 */
+	public int fill() {
+		int added = 0;
+		while (queue.remainingCapacity() > 0 && queue.offer(CLSignature.precompute(IssuanceReservoir.this.sk, IssuanceReservoir.this.pk)))
+			added++;
+		return added;
+	}
+
+	/**
+	 * Starts keeping the reservoir filled in the background, on the executor shared by all pools (see
+	 * {@link BackgroundFiller}). Filling pauses while the reservoir is full and resumes when precomputations are
+	 * taken, so an idle reservoir occupies no thread.
+	 */
+	public void start() {
+		filler.start();
+	}
+
+	/**
+	 * Stops filling the reservoir in the background. Precomputations that are still in the reservoir remain
+	 * available.
+	 */
+	public void stop() {
+		filler.stop();
+	}
+
+	/**
+	 * Takes a precomputation from the reservoir, or computes one if it is empty.
+	 */
+	public CLSignature.Precomputation take() {
+		CLSignature.Precomputation precomputation = queue.poll();
+		filler.wakeUp();
+		if (precomputation == null) {
+			depleted.incrementAndGet();
+			precomputation = CLSignature.precompute(sk, pk);
+		}
+		return precomputation;
+	}
+
+	/** The amount of precomputations currently in the reservoir. */
+	public int size() {
+		return queue.size();
+	}
+
+	public int getCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	/** The amount of times that a precomputation was taken while the reservoir was empty. */
+	public long getDepletedCount() {
+		return depleted.get();
+	}
+}
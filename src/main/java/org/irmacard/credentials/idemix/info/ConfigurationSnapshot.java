@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.info;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.info.*;
+import org.irmacard.credentials.info.updater.Updater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * <p>A binary snapshot of the fully parsed contents of the {@link DescriptionStore} and the public keys of the
+ * {@link IdemixKeyStore}, so that on startup the stores can be initialized without walking the configuration
+ * folder and parsing all of its XML (in particular the thousands of decimal digits of the public keys).</p>
+ *
+ * <p>A snapshot is identified by a hash over the files in the folders of all scheme managers in the configuration
+ * folder: their paths, sizes and modification times, and the contents of the index files that the {@link Updater}
+ * stores. If the identifier of the snapshot file differs from that of the configuration folder, the stores are
+ * parsed from XML as usual, after which the snapshot file is rewritten. Thus the snapshot is not used after an
+ * update, nor after anything was saved into the configuration folder otherwise, e.g. by a
+ * {@link DescriptionStoreSerializer} or {@link IdemixKeyStoreSerializer} when a description or key was
+ * downloaded at runtime.</p>
+ *
+ * <p>Secret keys are never included in the snapshot; they are still read from the configuration folder.</p>
+ */
+public class ConfigurationSnapshot {
+	private static Logger logger = LoggerFactory.getLogger(ConfigurationSnapshot.class);
+
+	private static final String MAGIC = "IRMA configuration snapshot";
+
+	/** Version of the format of the snapshot file, to be increased whenever it changes. */
+	private static final int FORMAT_VERSION = 3;
+
+	private ConfigurationSnapshot() {}
+
+	/**
+	 * Initialize the {@link DescriptionStore} and the {@link IdemixKeyStore} with the configuration in the
+	 * specified folder, using the snapshot file if it belongs to the current contents of the folder. Otherwise
+	 * the configuration is parsed and, if possible, a new snapshot file is written.
+	 *
+	 * @param core The configuration folder
+	 * @param snapshot The snapshot file
+	 * @return true if the stores were initialized from the snapshot
+	 * @throws InfoException if parsing the configuration folder failed
+	 */
+	public static boolean initialize(URI core, File snapshot) throws InfoException {
+		DescriptionStoreDeserializer descriptionDeserializer = new DescriptionStoreDeserializer(core);
+		IdemixKeyStoreDeserializer keyDeserializer = new IdemixKeyStoreDeserializer(core);
+		String identifier = getIdentifier(core);
+
+		if (identifier != null && snapshot.exists()) {
+			try {
+				DescriptionStore.setDeserializer(descriptionDeserializer);
+				IdemixKeyStore.setDeserializer(keyDeserializer);
+				if (load(snapshot, identifier, keyDeserializer))
+					return true;
+			} catch (IOException|IllegalArgumentException|InfoException e) {
+				logger.warn("Could not read configuration snapshot, parsing configuration instead", e);
+			}
+		}
+
+		DescriptionStore.initialize(descriptionDeserializer);
+		IdemixKeyStore.initialize(keyDeserializer);
+
+		if (identifier != null) {
+			try {
+				write(snapshot, identifier);
+			} catch (IOException|KeyException|StoreException e) {
+				logger.warn("Could not write configuration snapshot", e);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the identifier of the current contents of the configuration folder: the SHA-256 hash of the relative
+	 * paths, sizes and modification times of all files in the folders of the scheme managers, and of the contents
+	 * of their index files. Files directly in the configuration folder (such as the snapshot file itself) and
+	 * hidden files and folders are skipped. Returns null if the folder could not be read.
+	 */
+	public static String getIdentifier(URI core) {
+		final Path root;
+		try {
+			root = Paths.get(core);
+		} catch (IllegalArgumentException|FileSystemNotFoundException e) {
+			return null;
+		}
+
+		final SortedMap<String, BasicFileAttributes> files = new TreeMap<>();
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (!dir.equals(root) && dir.getFileName().toString().startsWith("."))
+						return FileVisitResult.SKIP_SUBTREE;
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (!file.getParent().equals(root) && !file.getFileName().toString().startsWith("."))
+						files.put(root.relativize(file).toString().replace(File.separatorChar, '/'), attrs);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(intToBytes(FORMAT_VERSION));
+			for (Map.Entry<String, BasicFileAttributes> file : files.entrySet()) {
+				String path = file.getKey();
+				byte[] name = path.getBytes("UTF-8");
+				digest.update(intToBytes(name.length));
+				digest.update(name);
+				digest.update(longToBytes(file.getValue().size()));
+				digest.update(longToBytes(file.getValue().lastModifiedTime().toMillis()));
+
+				// The index files list the hashes of all files of the scheme manager, which also catches changes
+				// that happen to leave the size and modification time of a file the same
+				if (path.equals(path.substring(0, path.indexOf('/') + 1) + Updater.INDEX_FILE)) {
+					byte[] index = Files.readAllBytes(root.resolve(path));
+					digest.update(intToBytes(index.length));
+					digest.update(index);
+				}
+			}
+
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest())
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write the current contents of the {@link DescriptionStore}, and the public keys of the
+	 * {@link IdemixKeyStore}, to the specified file. The file is replaced atomically.
+	 */
+	public static void write(File file, String identifier) throws IOException, KeyException, StoreException {
+		DescriptionStore.Snapshot descriptions = DescriptionStore.getInstance().getSnapshot();
+		IdemixKeyStore.Snapshot keys = IdemixKeyStore.getInstance().getSnapshot();
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		Path temp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeUTF(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(identifier);
+
+				// Scheme managers keep their XML around to be able to modify it, so we store that instead
+				Collection<SchemeManager> managers = descriptions.getSchemeManagers().values();
+				out.writeInt(managers.size());
+				for (SchemeManager manager : managers) {
+					byte[] xml = manager.getXml().getBytes("UTF-8");
+					out.writeInt(xml.length);
+					out.write(xml);
+				}
+
+				Collection<IssuerDescription> issuers = descriptions.getIssuerDescriptions().values();
+				out.writeInt(issuers.size());
+				for (IssuerDescription issuer : issuers)
+					issuer.writeTo(out);
+
+				Collection<CredentialDescription> credentials = descriptions.getCredentialDescriptions().values();
+				out.writeInt(credentials.size());
+				for (CredentialDescription credential : credentials)
+					credential.writeTo(out);
+
+				Map<IssuerIdentifier, Map<Integer, IdemixPublicKey>> publicKeys = keys.getPublicKeys();
+				int count = 0;
+				for (Map<Integer, IdemixPublicKey> issuerKeys : publicKeys.values())
+					count += issuerKeys.size();
+				out.writeInt(count);
+				for (Map.Entry<IssuerIdentifier, Map<Integer, IdemixPublicKey>> entry : publicKeys.entrySet()) {
+					for (Map.Entry<Integer, IdemixPublicKey> key : entry.getValue().entrySet())
+						writePublicKey(out, entry.getKey(), key.getKey(), key.getValue());
+				}
+			}
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Initialize the stores from the specified snapshot file, if it has the specified identifier.
+	 * @return false if the identifier of the file differs, in which case the stores are untouched
+	 */
+	private static boolean load(File file, String identifier, IdemixKeyStoreDeserializer keyDeserializer)
+			throws IOException, InfoException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+		if (!MAGIC.equals(in.readUTF()) || in.readInt() != FORMAT_VERSION || !identifier.equals(in.readUTF()))
+			return false;
+
+		int managerCount = readCount(in);
+		List<SchemeManager> managers = new ArrayList<>();
+		for (int i = 0; i < managerCount; i++) {
+			byte[] xml = new byte[readCount(in)];
+			in.readFully(xml);
+			managers.add(new SchemeManager(new String(xml, "UTF-8")));
+		}
+
+		int issuerCount = readCount(in);
+		List<IssuerDescription> issuers = new ArrayList<>();
+		for (int i = 0; i < issuerCount; i++)
+			issuers.add(IssuerDescription.readFrom(in));
+
+		int credentialCount = readCount(in);
+		List<CredentialDescription> credentials = new ArrayList<>();
+		for (int i = 0; i < credentialCount; i++)
+			credentials.add(CredentialDescription.readFrom(in));
+
+		IdemixKeyStore keys = new IdemixKeyStore();
+		int keyCount = readCount(in);
+		for (int i = 0; i < keyCount; i++) {
+			IdemixPublicKey pk = readPublicKey(in);
+			IssuerIdentifier issuer = pk.getIssuerIdentifier();
+			keys.setPublicKey(issuer, pk, pk.getCounter());
+			if (keyDeserializer.containsPrivateKey(issuer, pk.getCounter()))
+				keys.setSecretKey(issuer, keyDeserializer.loadPrivateKey(issuer, pk.getCounter()), pk.getCounter());
+		}
+
+		// Only now that everything has been read, we publish the stores
+		DescriptionStore.initialize(managers, issuers, credentials);
+		IdemixKeyStore.setInstance(keys);
+		KeyStore.setInstance(keys);
+		return true;
+	}
+
+	private static void writePublicKey(DataOutput out, IssuerIdentifier issuer, int counter,
+	                                   IdemixPublicKey pk) throws IOException {
+		out.writeUTF(issuer.toString());
+		out.writeInt(counter);
+		out.writeLong(pk.getExpiryDate().getTime());
+		writeBigInteger(out, pk.getModulus());
+		writeBigInteger(out, pk.getGeneratorZ());
+		writeBigInteger(out, pk.getGeneratorS());
+		out.writeInt(pk.getGeneratorsR().size());
+		for (BigInteger R : pk.getGeneratorsR())
+			writeBigInteger(out, R);
+	}
+
+	private static IdemixPublicKey readPublicKey(DataInputStream in) throws IOException {
+		IssuerIdentifier issuer = new IssuerIdentifier(in.readUTF());
+		int counter = in.readInt();
+		Date expiryDate = new Date(in.readLong());
+		BigInteger n = readBigInteger(in);
+		BigInteger Z = readBigInteger(in);
+		BigInteger S = readBigInteger(in);
+		int size = readCount(in);
+		List<BigInteger> R = new ArrayList<>();
+		for (int i = 0; i < size; i++)
+			R.add(readBigInteger(in));
+
+		IdemixPublicKey pk = new IdemixPublicKey(n, Z, S, R);
+		pk.setIssuerIdentifier(issuer);
+		pk.setCounter(counter);
+		pk.setExpiryDate(expiryDate);
+		return pk;
+	}
+
+	private static void writeBigInteger(DataOutput out, BigInteger value) throws IOException {
+		byte[] bytes = value.toByteArray();
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static BigInteger readBigInteger(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readCount(in)];
+		in.readFully(bytes);
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Reads the length of an array or list, checking that it is not negative and does not exceed the file.
+	 */
+	private static int readCount(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > in.available())
+			throw new IOException("Invalid count " + count + " in configuration snapshot");
+		return count;
+	}
+
+	private static byte[] intToBytes(int value) {
+		return ByteBuffer.allocate(4).putInt(value).array();
+	}
+
+	private static byte[] longToBytes(long value) {
+		return ByteBuffer.allocate(8).putLong(value).array();
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
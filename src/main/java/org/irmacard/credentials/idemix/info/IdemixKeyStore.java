@@ -34,23 +34,235 @@ import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSecretKey;
 import org.irmacard.credentials.info.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Stores the Idemix public and secret keys of all issuers.</p>
+ *
+ * <p>The keys are kept in an immutable {@link Snapshot}, so that reading keys never takes a lock, and never
+ * observes a half-updated store. Adding or removing keys copies the snapshot (only the top-level maps and
+ * the maps of the issuer in question) and atomically publishes the copy, so that rotating the keys of an
+ * issuer can proceed concurrently with the verification of proofs.</p>
+ *
+ * <p>If the store is initialized lazily (see {@link #initializeLazily(IdemixKeyStoreDeserializer, int)}), the
+ * snapshot also records which keys exist without having been parsed yet; these are parsed when they are first
+ * requested from any snapshot, and cached in a {@link LazyIndex} that is shared by all snapshots. The set of keys
+ * of a snapshot is thus immutable in lazy mode as well.</p>
+ */
 @SuppressWarnings("unused")
 public class IdemixKeyStore extends KeyStore {
 	static public final String PUBLIC_KEY_FILE = "PublicKeys/%d.xml";
 	static public final String PRIVATE_KEY_FILE = "PrivateKeys/%d.xml";
 
-	static private IdemixKeyStore ds;
+	static private volatile IdemixKeyStore ds;
 
 	static private IdemixKeyStoreSerializer serializer;
 	static private IdemixKeyStoreDeserializer deserializer;
 
-	private HashMap<IssuerIdentifier, HashMap<Integer,IdemixPublicKey>> publicKeys = new HashMap<>();
-	private HashMap<IssuerIdentifier, HashMap<Integer,IdemixSecretKey>> secretKeys = new HashMap<>();
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+	// Downloads in progress, so that concurrent requests for the same key are done only once
+	private final SingleFlight<PublicKeyIdentifier, IdemixPublicKey> keyDownloads = new SingleFlight<>();
+
+	/**
+	 * An immutable version of the contents of the key store.
+	 */
+	public static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(0,
+				Collections.<IssuerIdentifier, Map<Integer, IdemixPublicKey>>emptyMap(),
+				Collections.<IssuerIdentifier, Map<Integer, IdemixSecretKey>>emptyMap(),
+				Collections.<IssuerIdentifier, Integer>emptyMap(),
+				null, null);
+
+		private final long version;
+		private final Map<IssuerIdentifier, Map<Integer, IdemixPublicKey>> publicKeys;
+		private final Map<IssuerIdentifier, Map<Integer, IdemixSecretKey>> secretKeys;
+		// Highest public key counter per issuer, including the lazily indexed keys
+		private final Map<IssuerIdentifier, Integer> latestCounters;
+		// Keys that exist but are only parsed when first needed, if the store was initialized lazily
+		private final Lazy<IdemixPublicKey> lazyPublicKeys;
+		private final Lazy<IdemixSecretKey> lazySecretKeys;
+
+		/**
+		 * The identifiers of the keys of a snapshot that are parsed when first needed, and the cache that holds
+		 * the parsed keys. The identifiers are immutable, the cache is shared between snapshots.
+		 */
+		private static final class Lazy<K> {
+			private final Set<PublicKeyIdentifier> keys;
+			private final LazyIndex<PublicKeyIdentifier, K> cache;
+
+			Lazy(Set<PublicKeyIdentifier> keys, LazyIndex<PublicKeyIdentifier, K> cache) {
+				this.keys = keys;
+				this.cache = cache;
+			}
+
+			boolean contains(IssuerIdentifier issuer, int counter) {
+				return keys.contains(new PublicKeyIdentifier(issuer, counter));
+			}
+
+			K get(IssuerIdentifier issuer, int counter) throws KeyException {
+				PublicKeyIdentifier id = new PublicKeyIdentifier(issuer, counter);
+				if (!keys.contains(id))
+					return null;
+				try {
+					return cache.get(id);
+				} catch (InfoException e) {
+					throw new KeyException("Could not load key " + id, e);
+				}
+			}
+
+			Lazy<K> without(IssuerIdentifier issuer) {
+				HashSet<PublicKeyIdentifier> remaining = new HashSet<>();
+				for (PublicKeyIdentifier id : keys)
+					if (!id.getIssuer().equals(issuer))
+						remaining.add(id);
+				return new Lazy<>(Collections.unmodifiableSet(remaining), cache);
+			}
+		}
+
+		private Snapshot(long version,
+		                 Map<IssuerIdentifier, Map<Integer, IdemixPublicKey>> publicKeys,
+		                 Map<IssuerIdentifier, Map<Integer, IdemixSecretKey>> secretKeys,
+		                 Map<IssuerIdentifier, Integer> latestCounters,
+		                 Lazy<IdemixPublicKey> lazyPublicKeys,
+		                 Lazy<IdemixSecretKey> lazySecretKeys) {
+			this.version = version;
+			this.publicKeys = publicKeys;
+			this.secretKeys = secretKeys;
+			this.latestCounters = latestCounters;
+			this.lazyPublicKeys = lazyPublicKeys;
+			this.lazySecretKeys = lazySecretKeys;
+		}
+
+		/**
+		 * The number of modifications of the key store that preceded this snapshot.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Returns the specified public key, parsing it if it was indexed lazily, or null if it is not present.
+		 * @throws KeyException if parsing the key failed
+		 */
+		public IdemixPublicKey getPublicKey(IssuerIdentifier issuer, int counter) throws KeyException {
+			Map<Integer, IdemixPublicKey> keys = publicKeys.get(issuer);
+			IdemixPublicKey pk = keys == null ? null : keys.get(counter);
+			if (pk == null && lazyPublicKeys != null)
+				pk = lazyPublicKeys.get(issuer, counter);
+			return pk;
+		}
+
+		/**
+		 * Returns the specified secret key, parsing it if it was indexed lazily, or null if it is not present.
+		 * @throws KeyException if parsing the key failed
+		 */
+		public IdemixSecretKey getSecretKey(IssuerIdentifier issuer, int counter) throws KeyException {
+			Map<Integer, IdemixSecretKey> keys = secretKeys.get(issuer);
+			IdemixSecretKey sk = keys == null ? null : keys.get(counter);
+			if (sk == null && lazySecretKeys != null)
+				sk = lazySecretKeys.get(issuer, counter);
+			return sk;
+		}
+
+		public boolean containsPublicKey(IssuerIdentifier issuer, int counter) {
+			Map<Integer, IdemixPublicKey> keys = publicKeys.get(issuer);
+			return (keys != null && keys.containsKey(counter))
+					|| (lazyPublicKeys != null && lazyPublicKeys.contains(issuer, counter));
+		}
+
+		public boolean containsSecretKey(IssuerIdentifier issuer, int counter) {
+			Map<Integer, IdemixSecretKey> keys = secretKeys.get(issuer);
+			return (keys != null && keys.containsKey(counter))
+					|| (lazySecretKeys != null && lazySecretKeys.contains(issuer, counter));
+		}
+
+		/**
+		 * Returns the highest counter of the public keys of the specified issuer, or null if there are none.
+		 */
+		public Integer getKeyCounter(IssuerIdentifier issuer) {
+			return latestCounters.get(issuer);
+		}
+
+		/**
+		 * Returns all public keys, parsing the keys that were indexed lazily and not yet parsed.
+		 * @throws KeyException if parsing a key failed
+		 */
+		public Map<IssuerIdentifier, Map<Integer, IdemixPublicKey>> getPublicKeys() throws KeyException {
+			if (lazyPublicKeys == null)
+				return publicKeys;
+
+			HashMap<IssuerIdentifier, Map<Integer, IdemixPublicKey>> all = new HashMap<>();
+			for (Map.Entry<IssuerIdentifier, Map<Integer, IdemixPublicKey>> entry : publicKeys.entrySet())
+				all.put(entry.getKey(), new HashMap<>(entry.getValue()));
+			for (PublicKeyIdentifier id : lazyPublicKeys.keys) {
+				Map<Integer, IdemixPublicKey> issuerKeys = all.get(id.getIssuer());
+				if (issuerKeys == null) {
+					issuerKeys = new HashMap<>();
+					all.put(id.getIssuer(), issuerKeys);
+				}
+				if (!issuerKeys.containsKey(id.getCounter()))
+					issuerKeys.put(id.getCounter(), lazyPublicKeys.get(id.getIssuer(), id.getCounter()));
+			}
+			return all;
+		}
+
+		boolean isLazy() {
+			return lazyPublicKeys != null;
+		}
+
+		private Snapshot withPublicKey(IssuerIdentifier issuer, int counter, IdemixPublicKey pk) {
+			Integer latest = latestCounters.get(issuer);
+			Map<IssuerIdentifier, Integer> counters = latestCounters;
+			if (latest == null || counter > latest)
+				counters = with(latestCounters, issuer, counter);
+
+			return new Snapshot(version + 1, withKey(publicKeys, issuer, counter, pk), secretKeys, counters,
+					lazyPublicKeys, lazySecretKeys);
+		}
+
+		private Snapshot withSecretKey(IssuerIdentifier issuer, int counter, IdemixSecretKey sk) {
+			return new Snapshot(version + 1, publicKeys, withKey(secretKeys, issuer, counter, sk), latestCounters,
+					lazyPublicKeys, lazySecretKeys);
+		}
+
+		private Snapshot withoutPublicKeys(IssuerIdentifier issuer) {
+			if (!latestCounters.containsKey(issuer))
+				return this;
+			return new Snapshot(version + 1, without(publicKeys, issuer), secretKeys, without(latestCounters, issuer),
+					lazyPublicKeys == null ? null : lazyPublicKeys.without(issuer), lazySecretKeys);
+		}
+
+		private static <K> Map<IssuerIdentifier, Map<Integer, K>> withKey(
+				Map<IssuerIdentifier, Map<Integer, K>> keys, IssuerIdentifier issuer, int counter, K key) {
+			Map<Integer, K> current = keys.get(issuer);
+			Map<Integer, K> issuerKeys = current == null
+					? Collections.singletonMap(counter, key)
+					: with(current, counter, key);
+			return with(keys, issuer, issuerKeys);
+		}
+
+		private static <K, V> Map<K, V> with(Map<K, V> map, K key, V value) {
+			HashMap<K, V> copy = new HashMap<>(map);
+			copy.put(key, value);
+			return Collections.unmodifiableMap(copy);
+		}
+
+		private static <K, V> Map<K, V> without(Map<K, V> map, K key) {
+			HashMap<K, V> copy = new HashMap<>(map);
+			copy.remove(key);
+			return Collections.unmodifiableMap(copy);
+		}
+	}
 
 	public static void setDeserializer(IdemixKeyStoreDeserializer deserializer) {
 		IdemixKeyStore.deserializer = deserializer;
@@ -73,11 +285,72 @@ public class IdemixKeyStore extends KeyStore {
 	}
 
 	public static void initialize() throws InfoException {
-		ds = new IdemixKeyStore();
+		// Only publish the new store once it is complete
+		IdemixKeyStore store = new IdemixKeyStore();
 		if (deserializer != null)
-			new KeyTreeWalker(deserializer).deserializeIdemixKeyStore(ds);
+			new KeyTreeWalker(deserializer).deserializeIdemixKeyStore(store);
 
-		KeyStore.setInstance(ds);
+		ds = store;
+		KeyStore.setInstance(store);
+	}
+
+	/**
+	 * Initialize the store lazily: only the counters of the keys of all issuers in the {@link DescriptionStore}
+	 * are recorded, and the keys are parsed when they are first requested.
+	 *
+	 * @param deserializer Deserializer for the keys
+	 * @param capacity Maximum amount of public and of secret keys kept in memory, or 0 for no maximum
+	 */
+	public static void initializeLazily(final IdemixKeyStoreDeserializer deserializer, int capacity)
+			throws InfoException {
+		IdemixKeyStore.deserializer = deserializer;
+
+		LazyIndex<PublicKeyIdentifier, IdemixPublicKey> publicKeys = new LazyIndex<>(
+				new LazyIndex.Loader<PublicKeyIdentifier, IdemixPublicKey>() {
+			@Override public IdemixPublicKey load(PublicKeyIdentifier id) throws InfoException {
+				return deserializer.loadPublicKey(id.getIssuer(), id.getCounter());
+			}
+		}, capacity);
+		LazyIndex<PublicKeyIdentifier, IdemixSecretKey> secretKeys = new LazyIndex<>(
+				new LazyIndex.Loader<PublicKeyIdentifier, IdemixSecretKey>() {
+			@Override public IdemixSecretKey load(PublicKeyIdentifier id) throws InfoException {
+				return deserializer.loadPrivateKey(id.getIssuer(), id.getCounter());
+			}
+		}, capacity);
+		HashSet<PublicKeyIdentifier> publicKeyIds = new HashSet<>();
+		HashSet<PublicKeyIdentifier> secretKeyIds = new HashSet<>();
+		HashMap<IssuerIdentifier, Integer> latestCounters = new HashMap<>();
+
+		for (IssuerIdentifier issuer : DescriptionStore.getInstance().getIssuerIdentifiers()) {
+			for (int counter : deserializer.getPublicKeyCounters(issuer)) {
+				PublicKeyIdentifier id = new PublicKeyIdentifier(issuer, counter);
+				publicKeys.add(id);
+				publicKeyIds.add(id);
+				if (deserializer.containsPrivateKey(issuer, counter)) {
+					secretKeys.add(id);
+					secretKeyIds.add(id);
+				}
+
+				Integer latest = latestCounters.get(issuer);
+				if (latest == null || counter > latest)
+					latestCounters.put(issuer, counter);
+			}
+		}
+
+		IdemixKeyStore store = new IdemixKeyStore();
+		store.snapshot.set(new Snapshot(0,
+				Collections.<IssuerIdentifier, Map<Integer, IdemixPublicKey>>emptyMap(),
+				Collections.<IssuerIdentifier, Map<Integer, IdemixSecretKey>>emptyMap(),
+				Collections.unmodifiableMap(latestCounters),
+				new Snapshot.Lazy<>(Collections.unmodifiableSet(publicKeyIds), publicKeys),
+				new Snapshot.Lazy<>(Collections.unmodifiableSet(secretKeyIds), secretKeys)));
+
+		ds = store;
+		KeyStore.setInstance(store);
+	}
+
+	public boolean isLazy() {
+		return snapshot.get().isLazy();
 	}
 
 	public static boolean isInitialized() {
@@ -91,40 +364,64 @@ public class IdemixKeyStore extends KeyStore {
 	 * @throws StoreException if instantiating the IdemixKeyStore failed
 	 */
 	public static IdemixKeyStore getInstance() throws StoreException {
-		if (ds == null) {
-			try {
-				initialize();
-			} catch (InfoException e) {
-				throw new StoreException(e);
+		IdemixKeyStore store = ds;
+		if (store == null) {
+			synchronized (IdemixKeyStore.class) {
+				if (ds == null) {
+					try {
+						initialize();
+					} catch (InfoException e) {
+						throw new StoreException(e);
+					}
+				}
+				store = ds;
 			}
 		}
 
-		return ds;
+		return store;
 	}
 
 	public static void setInstance(IdemixKeyStore instance) {
 		ds = instance;
 	}
 
-	public void setPublicKey(IssuerIdentifier issuer, IdemixPublicKey ipk, int counter) {
-		if (!publicKeys.containsKey(issuer))
-			publicKeys.put(issuer, new HashMap<Integer, IdemixPublicKey>(1));
+	/**
+	 * Returns the current contents of the key store. The snapshot is immutable: later modifications of the
+	 * key store result in a new snapshot.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot.get();
+	}
 
-		publicKeys.get(issuer).put(counter, ipk);
+	/**
+	 * The number of modifications of this key store so far.
+	 */
+	public long getVersion() {
+		return snapshot.get().getVersion();
+	}
+
+	public void setPublicKey(IssuerIdentifier issuer, IdemixPublicKey ipk, int counter) {
+		Snapshot current;
+		do {
+			current = snapshot.get();
+		} while (!snapshot.compareAndSet(current, current.withPublicKey(issuer, counter, ipk)));
 	}
 
 	public boolean containsPublicKey(IssuerIdentifier issuer, int counter) {
-		if (!publicKeys.containsKey(issuer))
-			return false;
-		return publicKeys.get(issuer).containsKey(counter);
+		return snapshot.get().containsPublicKey(issuer, counter);
 	}
 
 	@Override
 	public IdemixPublicKey getPublicKey(IssuerIdentifier issuer, int counter) throws KeyException {
-		if (publicKeys.containsKey(issuer) && publicKeys.get(issuer).containsKey(counter))
-			return publicKeys.get(issuer).get(counter);
+		return getPublicKey(snapshot.get(), issuer, counter);
+	}
 
-		throw new KeyException("Public key " + counter + " for issuer " + issuer + " not found");
+	private IdemixPublicKey getPublicKey(Snapshot current, IssuerIdentifier issuer, int counter)
+			throws KeyException {
+		IdemixPublicKey pk = current.getPublicKey(issuer, counter);
+		if (pk == null)
+			throw new KeyException("Public key " + counter + " for issuer " + issuer + " not found");
+		return pk;
 	}
 
 	public IdemixPublicKey getPublicKey(PublicKeyIdentifier pkid) throws KeyException {
@@ -133,37 +430,44 @@ public class IdemixKeyStore extends KeyStore {
 
 	@Override
 	public void removePublicKeys(IssuerIdentifier issuer) {
-		for (Iterator<IssuerIdentifier> it = publicKeys.keySet().iterator(); it.hasNext(); )
-			if (it.next().equals(issuer))
-				it.remove();
+		Snapshot current;
+		do {
+			current = snapshot.get();
+		} while (!snapshot.compareAndSet(current, current.withoutPublicKeys(issuer)));
 	}
 
 	public IdemixPublicKey getLatestPublicKey(IssuerIdentifier issuer) throws KeyException {
-		return getPublicKey(issuer, getKeyCounter(issuer));
+		// Use one snapshot for both lookups, so that a concurrent removal can't interfere
+		Snapshot current = snapshot.get();
+		return getPublicKey(current, issuer, getKeyCounter(current, issuer));
 	}
 
 	public boolean containsSecretKey(IssuerIdentifier issuer, int counter) {
-		if (!secretKeys.containsKey(issuer))
-			return false;
-		return secretKeys.get(issuer).containsKey(counter);
+		return snapshot.get().containsSecretKey(issuer, counter);
 	}
 
 	public IdemixSecretKey getSecretKey(IssuerIdentifier issuer, int counter) throws KeyException {
-		if (secretKeys.containsKey(issuer) && secretKeys.get(issuer).containsKey(counter))
-			return secretKeys.get(issuer).get(counter);
-
-		throw new KeyException("Secret key " + counter + " for issuer " + issuer + " not found");
+		return getSecretKey(snapshot.get(), issuer, counter);
 	}
 
 	public IdemixSecretKey getLatestSecretKey(IssuerIdentifier issuer) throws KeyException {
-		return getSecretKey(issuer, getKeyCounter(issuer));
+		Snapshot current = snapshot.get();
+		return getSecretKey(current, issuer, getKeyCounter(current, issuer));
 	}
 
-	public void setSecretKey(IssuerIdentifier issuer, IdemixSecretKey sk, int counter) {
-		if (!secretKeys.containsKey(issuer))
-			secretKeys.put(issuer, new HashMap<Integer, IdemixSecretKey>(1));
+	private IdemixSecretKey getSecretKey(Snapshot current, IssuerIdentifier issuer, int counter)
+			throws KeyException {
+		IdemixSecretKey sk = current.getSecretKey(issuer, counter);
+		if (sk == null)
+			throw new KeyException("Secret key " + counter + " for issuer " + issuer + " not found");
+		return sk;
+	}
 
-		secretKeys.get(issuer).put(counter, sk);
+	public void setSecretKey(IssuerIdentifier issuer, IdemixSecretKey sk, int counter) {
+		Snapshot current;
+		do {
+			current = snapshot.get();
+		} while (!snapshot.compareAndSet(current, current.withSecretKey(issuer, counter, sk)));
 	}
 
 	/**
@@ -171,14 +475,28 @@ public class IdemixKeyStore extends KeyStore {
 	 * @throws KeyException if no public keys for the specified issuer are present
 	 */
 	public int getKeyCounter(IssuerIdentifier issuer) throws KeyException {
-		if (publicKeys.get(issuer) == null)
+		return getKeyCounter(snapshot.get(), issuer);
+	}
+
+	private int getKeyCounter(Snapshot snapshot, IssuerIdentifier issuer) throws KeyException {
+		Integer counter = snapshot.getKeyCounter(issuer);
+		if (counter == null)
 			throw new KeyException("No public keys for issuer " + issuer);
+		return counter;
+	}
 
-		// Put all counters in an array, sort it, and return the biggest element
-		Integer[] counters = new Integer[publicKeys.get(issuer).size()];
-		publicKeys.get(issuer).keySet().toArray(counters);
-		Arrays.sort(counters);
-		return counters[counters.length - 1];
+	/**
+	 * Download a public key on the {@link DescriptionStore#getDownloadExecutor() download executor}.
+	 * @param timeout Deadline in milliseconds, or 0 for none (see {@link DescriptionStore#submitDownload(Callable, long)})
+	 * @see #downloadPublicKey(IssuerIdentifier, int)
+	 */
+	public Future<IdemixPublicKey> downloadPublicKeyAsync(final IssuerIdentifier issuer, final int counter,
+	                                                      long timeout) {
+		return DescriptionStore.submitDownload(new Callable<IdemixPublicKey>() {
+			@Override public IdemixPublicKey call() throws IOException, InfoException {
+				return downloadPublicKey(issuer, counter);
+			}
+		}, timeout);
 	}
 
 	/**
@@ -189,21 +507,26 @@ public class IdemixKeyStore extends KeyStore {
 	 * @throws IOException if the file could not be downloaded
 	 * @throws InfoException if the scheme manager was unknown
 	 */
-	public IdemixPublicKey downloadPublicKey(IssuerIdentifier issuer, int counter) throws IOException, InfoException {
-		IssuerDescription id = DescriptionStore.getInstance().getIssuerDescription(issuer);
-		SchemeManager manager = DescriptionStore.getInstance().getSchemeManager(issuer.getSchemeManagerName());
-		if (manager == null)
-			throw new InfoException("Unknown scheme manager");
-
-		String url = manager.getUrl() + "/" + issuer.getIssuerName() + "/";
-
-		String pkXml = DescriptionStore.inputStreamToString(
-				DescriptionStore.doHttpRequest(url + String.format(PUBLIC_KEY_FILE, counter)));
-		IdemixPublicKey pk = new IdemixPublicKey(pkXml, issuer);
-
-		setPublicKey(issuer, pk, counter);
-		if (serializer != null)
-			serializer.saveIdemixKey(id, pkXml, counter);
-		return pk;
+	public IdemixPublicKey downloadPublicKey(final IssuerIdentifier issuer, final int counter)
+			throws IOException, InfoException {
+		return keyDownloads.run(new PublicKeyIdentifier(issuer, counter), new SingleFlight.Call<IdemixPublicKey>() {
+			@Override public IdemixPublicKey call() throws IOException, InfoException {
+				IssuerDescription id = DescriptionStore.getInstance().getIssuerDescription(issuer);
+				SchemeManager manager = DescriptionStore.getInstance().getSchemeManager(issuer.getSchemeManagerName());
+				if (manager == null)
+					throw new InfoException("Unknown scheme manager");
+
+				String url = manager.getUrl() + "/" + issuer.getIssuerName() + "/";
+
+				String pkXml = DescriptionStore.inputStreamToString(new ByteArrayInputStream(
+						DescriptionStore.download(url + String.format(PUBLIC_KEY_FILE, counter))));
+				IdemixPublicKey pk = new IdemixPublicKey(pkXml, issuer);
+
+				setPublicKey(issuer, pk, counter);
+				if (serializer != null)
+					serializer.saveIdemixKey(id, pkXml, counter);
+				return pk;
+			}
+		});
 	}
 }
@@ -62,6 +62,8 @@ public class IdemixKeyStoreDeserializer {
 
 	public ArrayList<Integer> getPublicKeyCounters(IssuerIdentifier issuer) throws InfoException {
 		String[] files = fileReader.list(issuer.getPath(false) + "/PublicKeys");
+		if (files == null)
+			return new ArrayList<>();
 
 		ArrayList<Integer> counters = new ArrayList<>(files.length);
 		for (String filename : files) {
@@ -77,6 +79,10 @@ public class IdemixKeyStoreDeserializer {
 		return new IdemixPublicKey(fileReader.retrieveFile(getPublicKeyPath(issuer, counter)), issuer);
 	}
 
+	public boolean containsPrivateKey(IssuerIdentifier issuer, int counter) {
+		return fileReader.containsFile(getPrivateKeyPath(issuer, counter));
+	}
+
 	public IdemixSecretKey loadPrivateKey(IssuerIdentifier issuer, int counter) throws InfoException {
 		return new IdemixSecretKey(fileReader.retrieveFile(getPrivateKeyPath(issuer, counter)));
 	}
@@ -30,31 +30,120 @@
 
 package org.irmacard.credentials.idemix.info;
 
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.IdemixSecretKey;
 import org.irmacard.credentials.info.DescriptionStore;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.IssuerDescription;
 import org.irmacard.credentials.info.IssuerIdentifier;
 import org.irmacard.credentials.info.StoreException;
+import org.irmacard.credentials.info.TreeWalker;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads the keys of all issuers in the {@link DescriptionStore} into an {@link IdemixKeyStore}. The keys of
+ * different issuers are loaded in parallel on a {@link ForkJoinPool} (by default that of the {@link TreeWalker});
+ * they are added to the store ordered by issuer and counter.
+ */
 public class KeyTreeWalker {
 	private IdemixKeyStoreDeserializer deserializer;
+	private final ForkJoinPool pool;
 
 	public KeyTreeWalker(IdemixKeyStoreDeserializer deserializer) {
+		this(deserializer, TreeWalker.getDefaultPool());
+	}
+
+	public KeyTreeWalker(IdemixKeyStoreDeserializer deserializer, ForkJoinPool pool) {
 		this.deserializer = deserializer;
+		this.pool = pool;
 	}
 
 	public void deserializeIdemixKeyStore(IdemixKeyStore store) throws InfoException {
 		DescriptionStore ds = DescriptionStore.getInstance();
 
-		for (IssuerDescription id : ds.getIssuerDescriptions()) {
-			IssuerIdentifier issuer = id.getIdentifier();
+		final List<IssuerIdentifier> issuers = new ArrayList<>();
+		for (IssuerDescription id : ds.getIssuerDescriptions())
+			issuers.add(id.getIdentifier());
+		Collections.sort(issuers, new Comparator<IssuerIdentifier>() {
+			@Override public int compare(IssuerIdentifier a, IssuerIdentifier b) {
+				return a.toString().compareTo(b.toString());
+			}
+		});
+
+		List<List<Keys>> loaded;
+		try {
+			loaded = pool.invoke(new RecursiveTask<List<List<Keys>>>() {
+				@Override protected List<List<Keys>> compute() {
+					List<IssuerTask> tasks = new ArrayList<>(issuers.size());
+					for (IssuerIdentifier issuer : issuers)
+						tasks.add(new IssuerTask(issuer));
+					ForkJoinTask.invokeAll(tasks);
+
+					List<List<Keys>> results = new ArrayList<>(tasks.size());
+					for (IssuerTask task : tasks)
+						results.add(task.join());
+					return results;
+				}
+			});
+		} catch (RuntimeException e) {
+			for (Throwable cause = e; cause != null; cause = cause.getCause())
+				if (cause instanceof InfoException)
+					throw (InfoException) cause;
+			throw e;
+		}
+
+		for (List<Keys> issuerKeys : loaded) {
+			for (Keys keys : issuerKeys) {
+				store.setPublicKey(keys.issuer, keys.pk, keys.counter);
+				if (keys.sk != null)
+					store.setSecretKey(keys.issuer, keys.sk, keys.counter);
+			}
+		}
+	}
+
+	private static class Keys {
+		IssuerIdentifier issuer;
+		int counter;
+		IdemixPublicKey pk;
+		IdemixSecretKey sk;
+	}
+
+	private class IssuerTask extends RecursiveTask<List<Keys>> {
+		private static final long serialVersionUID = 1L;
+
+		private final IssuerIdentifier issuer;
+
+		IssuerTask(IssuerIdentifier issuer) {
+			this.issuer = issuer;
+		}
+
+		@Override
+		protected List<Keys> compute() {
+			try {
+				List<Integer> counters = deserializer.getPublicKeyCounters(issuer);
+				Collections.sort(counters);
 
-			for (int i : deserializer.getPublicKeyCounters(issuer)) {
-				// We expect this public key here, throw exception if it's not here
-				store.setPublicKey(issuer, deserializer.loadPublicKey(issuer, i), i);
-				try {
-					store.setSecretKey(issuer, deserializer.loadPrivateKey(issuer, i), i);
-				} catch (InfoException e) { /* ignore absence of public or private key */ }
+				List<Keys> result = new ArrayList<>(counters.size());
+				for (int i : counters) {
+					Keys keys = new Keys();
+					keys.issuer = issuer;
+					keys.counter = i;
+					// We expect this public key here, throw exception if it's not here
+					keys.pk = deserializer.loadPublicKey(issuer, i);
+					if (deserializer.containsPrivateKey(issuer, i))
+						keys.sk = deserializer.loadPrivateKey(issuer, i);
+					result.add(keys);
+				}
+				return result;
+			} catch (InfoException e) {
+				throw new RuntimeException(e);
 			}
 		}
 	}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.info.KeyException;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>Verifies a batch of {@link ProofList}s, for verifiers that receive many disclosures at once. Each entry is
+ * verified separately so that a single invalid proof list does not affect the verdict of the others; the result
+ * of {@link #verify()} contains a verdict per entry.</p>
+ *
+ * <p>Note that the proofs cannot be checked by a randomized (small exponent) batch test: such a test combines
+ * verification equations of the form x == y, but our proofs contain the challenge instead of the commitments,
+ * so that verifying a proof amounts to reconstructing its commitment and comparing its hash to the challenge.
+ * The reconstruction must therefore be performed per proof. The cost of a batch can instead be spread over
+ * several threads, by verifying the entries in parallel using {@link #verify(Executor)}.</p>
+ */
+public class BatchVerifier {
+	private List<Entry> entries = new ArrayList<>();
+
+	private static class Entry {
+		private final ProofList proofs;
+		private final BigInteger context;
+		private final BigInteger nonce;
+		private final boolean shouldBeBound;
+
+		private Entry(ProofList proofs, BigInteger context, BigInteger nonce, boolean shouldBeBound) {
+			this.proofs = proofs;
+			this.context = context;
+			this.nonce = nonce;
+			this.shouldBeBound = shouldBeBound;
+		}
+
+		/**
+		 * Looks up the public keys of the proof list if necessary.
+		 * @return false if they could not be determined
+		 */
+		private boolean populatePublicKeys() {
+			List<IdemixPublicKey> pks = proofs.getPublicKeys();
+			if (pks == null || pks.size() != proofs.size()) {
+				try {
+					proofs.populatePublicKeyArray();
+				} catch (KeyException|IllegalArgumentException e) {
+					return false;
+				}
+				pks = proofs.getPublicKeys();
+			}
+			return pks != null && pks.size() == proofs.size() && !pks.contains(null);
+		}
+
+		private boolean verify() {
+			if (!populatePublicKeys())
+				return false;
+			try {
+				return proofs.verify(context, nonce, shouldBeBound);
+			} catch (ArithmeticException e) {
+				// The proof contains numbers that are not invertible modulo the public key
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Add a proof list to the batch, to be verified with the specified parameters
+	 * (see {@link ProofList#verify(BigInteger, BigInteger, boolean)}). If the public keys of the proof list
+	 * have not been set, they are looked up using {@link ProofList#populatePublicKeyArray()}.
+	 * @return this instance
+	 */
+	public BatchVerifier add(ProofList proofs, BigInteger context, BigInteger nonce, boolean shouldBeBound) {
+		entries.add(new Entry(proofs, context, nonce, shouldBeBound));
+		return this;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Verifies all proof lists in this batch, one after another on the calling thread.
+	 * @return An array containing for each proof list, in the order in which they were added, whether or not it
+	 *         is valid. A proof list whose public keys could not be determined is considered invalid.
+	 */
+	public boolean[] verify() {
+		return verify(null);
+	}
+
+	/**
+	 * Verifies all proof lists in this batch as {@link #verify()} does, but each as a separate task on the
+	 * specified executor.
+	 * @param executor The executor to run the tasks on; if null, all work is done sequentially on the calling
+	 *                 thread
+	 */
+	public boolean[] verify(Executor executor) {
+		boolean[] results = new boolean[entries.size()];
+
+		if (executor == null) {
+			for (int i = 0; i < entries.size(); ++i)
+				results[i] = entries.get(i).verify();
+			return results;
+		}
+
+		List<FutureTask<Boolean>> tasks = new ArrayList<>(entries.size());
+		for (final Entry entry : entries) {
+			FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+				@Override public Boolean call() {
+					return entry.verify();
+				}
+			});
+			tasks.add(task);
+			executor.execute(task);
+		}
+
+		try {
+			for (int i = 0; i < tasks.size(); ++i)
+				results[i] = tasks.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while verifying proofs", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (FutureTask<Boolean> task : tasks)
+				task.cancel(true);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns true only if all proof lists in this batch are valid.
+	 */
+	public boolean verifyAll() {
+		for (boolean result : verify())
+			if (!result)
+				return false;
+		return true;
+	}
+}
@@ -56,8 +56,8 @@ public abstract class Commitments {
 		lst.add(nonce1);
 
 		if (isSig)
-			return Crypto.sha256Hash(Crypto.asn1SigEncode(lst));
+			return Crypto.asn1SigHash(lst);
 		else
-			return Crypto.sha256Hash(Crypto.asn1Encode(lst));
+			return Crypto.asn1Hash(lst);
 	}
 }
@@ -56,6 +56,8 @@ public interface Proof {
 
 	/**
 	 * Returns integers that should be included in the hash when calculating the challenge during verification.
+	 * When this proof is not bound to other proofs, its challenge must be the hash over the context, these
+	 * integers, and the nonce; {@link ProofList} relies on this to compute the (expensive) contribution only once.
 	 * @param pk The public key this {@link Proof} is being verified against
 	 */
 	List<BigInteger> getChallengeContribution(IdemixPublicKey pk);
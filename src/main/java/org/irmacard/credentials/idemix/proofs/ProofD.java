@@ -73,14 +73,15 @@ public class ProofD implements Proof {
 	}
 
 	public boolean verify(IdemixPublicKey pk, BigInteger context, BigInteger nonce1, BigInteger challenge) {
-		if(!checkSizeResponses(pk)) {
+		Statement statement = statement(pk);
+		if(!statement.checkBounds()) {
 			return false;
 		}
 
 		BigInteger c_prime = challenge;
 		if (c_prime == null) {
-			BigInteger Z = reconstructZ(pk);
-			c_prime = Crypto.sha256Hash(Crypto.asn1Encode(context, A, Z, nonce1));
+			BigInteger Z = statement.evaluate();
+			c_prime = Crypto.asn1Hash(context, A, Z, nonce1);
 		}
 
 		boolean matched = c.compareTo(c_prime) == 0;
@@ -110,62 +111,39 @@ public class ProofD implements Proof {
 		return get_a_responses().get(0);
 	}
 
-	private boolean checkSizeResponses(IdemixPublicKey pk) {
-		IdemixSystemParameters params = pk.getSystemParameters();
-
-		// Check range on the a_responses
-		BigInteger maximum = Crypto.TWO.pow(params.get_l_m_commit() + 1).subtract(BigInteger.ONE);
-		BigInteger minimum = maximum.negate();
-		for(BigInteger a_response : a_responses.values()) {
-			if(a_response.compareTo(minimum) < 0 ||
-					a_response.compareTo(maximum) > 0) {
-				System.out.println("Size of a_response outside of range");
-				return false;
-			}
-		}
-
-		// Check range e_response
-		maximum = Crypto.TWO.pow(params.get_l_e_commit() + 1).subtract(BigInteger.ONE);
-		minimum = maximum.negate();
-		if(e_response.compareTo(minimum) < 0 ||
-				e_response.compareTo(maximum) > 0) {
-			System.out.println("Size of e_response outside of range");
-			return false;
-		}
-
-		return true;
+	public BigInteger reconstructZ(IdemixPublicKey pk) {
+		return statement(pk).evaluate();
 	}
 
-	public BigInteger reconstructZ(IdemixPublicKey pk) {
+	/**
+	 * The statement of this proof: the reconstruction of the commitment Z, and the bounds on the responses.
+	 */
+	private Statement statement(IdemixPublicKey pk) {
 		IdemixSystemParameters params = pk.getSystemParameters();
-		BigInteger n = pk.getModulus();
-
-		// known = Z / ( prod_{disclosed} R_i^{a_i} * A^{2^{l_e - 1}} )
-		BigInteger numerator = A.modPow(Crypto.TWO.pow(params.get_l_e() - 1), n);
+		Statement statement = new Statement(pk);
+
+		// Z_rec = known^{-c} * A^{e_response} * S^{v_response} * prod_{undisclosed} R_i^{a_response_i},
+		// where known = Z / ( prod_{disclosed} R_i^{a_i} * A^{2^{l_e - 1}} ). Expanding known^{-c}, this is
+		// Z_rec = (Z^{-1})^c * A^{e_response + c*2^{l_e - 1}} * S^{v_response}
+		//         * prod_{disclosed} R_i^{c*a_i} * prod_{undisclosed} R_i^{a_response_i}
+		// which requires one exponentiation of A and a product over generators of the public key,
+		// and no modular inversions.
+		statement.power(pk.getFixedBaseZInverse(), c);
+		statement.power(A, e_response.add(c.shiftLeft(params.get_l_e() - 1)));
+		statement.power(pk.getFixedBaseS(), v_response);
 		for(Entry<Integer, BigInteger> entry : a_disclosed.entrySet()) {
-			Integer idx = entry.getKey();
 			BigInteger attribute = entry.getValue();
 			if (attribute.bitLength() > params.get_l_m())
 				attribute = Crypto.sha256Hash(attribute.toByteArray());
-			BigInteger tmp = pk.getGeneratorR(idx).modPow(attribute, n);
-			numerator = numerator.multiply(tmp).mod(n);
+			statement.power(pk.getFixedBaseR(entry.getKey()), c.multiply(attribute));
 		}
-		BigInteger known = pk.getGeneratorZ().multiply(numerator.modInverse(n));
-		BigInteger known_c = known.modPow(c.negate(), n);
-
-		BigInteger Ae = A.modPow(e_response, n);
-		BigInteger Sv = pk.getGeneratorS().modPow(v_response, n);
-		BigInteger Rs = BigInteger.ONE;
 		for(Entry<Integer, BigInteger> entry : a_responses.entrySet()) {
-			Integer idx = entry.getKey();
-			BigInteger response = entry.getValue();
-
-			BigInteger tmp = pk.getGeneratorR(idx).modPow(response, n);
-			Rs = Rs.multiply(tmp).mod(n);
+			statement.power(pk.getFixedBaseR(entry.getKey()), entry.getValue());
+			statement.bound("a_response", entry.getValue(), params.get_l_m_commit() + 1);
 		}
+		statement.bound("e_response", e_response, params.get_l_e_commit() + 1);
 
-		// Return Z
-		return known_c.multiply(Ae).multiply(Rs).multiply(Sv).mod(n);
+		return statement;
 	}
 
 	public BigInteger get_c() {
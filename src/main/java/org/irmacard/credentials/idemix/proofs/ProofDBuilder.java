@@ -35,6 +35,7 @@ import org.irmacard.credentials.idemix.IdemixCredential;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.Randomness;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
@@ -52,6 +53,10 @@ public class ProofDBuilder extends ProofBuilder {
 		private BigInteger v_randomizer;
 		private HashMap<Integer, BigInteger> a_randomizers;
 		private CLSignature rand_sig;
+
+		// Commitments to the randomizers that were precomputed, if any
+		private BigInteger Z_partial;
+		private HashMap<Integer, BigInteger> a_commitments;
 	}
 
 	class ProofDCommitments extends Commitments {
@@ -88,25 +93,39 @@ public class ProofDBuilder extends ProofBuilder {
 
 	@Override
 	public ProofBuilder generateRandomizers(Map<String, BigInteger> fixed) {
-		SecureRandom rnd = new SecureRandom();
 		ProofDRandomizers rand = new ProofDRandomizers();
 
-		IdemixPublicKey issuer_pk = credential.getPublicKey();
-		IdemixSystemParameters params = issuer_pk.getSystemParameters();
-		rand.e_randomizer = new BigInteger(params.get_l_e_commit(), rnd);
-		rand.v_randomizer = new BigInteger(params.get_l_v_commit(), rnd);
+		ProofDPrecomputationPool pool = credential.getPrecomputationPool();
+		if (pool != null) {
+			ProofDPrecomputation precomputation = pool.take();
+			rand.e_randomizer = precomputation.e_randomizer;
+			rand.v_randomizer = precomputation.v_randomizer;
+			rand.rand_sig = precomputation.rand_sig;
+			rand.Z_partial = precomputation.Z_partial;
+			rand.a_randomizers = new HashMap<>(precomputation.a_randomizers);
+			rand.a_commitments = new HashMap<>(precomputation.a_commitments);
+		} else {
+			SecureRandom rnd = Randomness.get();
+
+			IdemixPublicKey issuer_pk = credential.getPublicKey();
+			IdemixSystemParameters params = issuer_pk.getSystemParameters();
+			rand.e_randomizer = new BigInteger(params.get_l_e_commit(), rnd);
+			rand.v_randomizer = new BigInteger(params.get_l_v_commit(), rnd);
+
+			rand.a_randomizers = new HashMap<>();
+			for(Integer i : undisclosed_attributes) {
+				rand.a_randomizers.put(i, new BigInteger(params.get_l_m_commit(), rnd));
+			}
 
-		rand.a_randomizers = new HashMap<>();
-		for(Integer i : undisclosed_attributes) {
-			rand.a_randomizers.put(i, new BigInteger(params.get_l_m_commit(), rnd));
+			rand.rand_sig = credential.getSignature().randomize(issuer_pk);
+			rand.a_commitments = new HashMap<>();
 		}
 
 		if(fixed.containsKey(USER_SECRET_KEY)) {
 			rand.a_randomizers.put(0, fixed.get(USER_SECRET_KEY));
+			rand.a_commitments.remove(0);
 		}
 
-		rand.rand_sig = credential.getSignature().randomize(issuer_pk);
-
 		this.rand = rand;
 		return this;
 	}
@@ -116,17 +135,25 @@ public class ProofDBuilder extends ProofBuilder {
 		ProofDCommitments coms = new ProofDCommitments(credential.getPublicKey());
 
 		IdemixPublicKey issuer_pk = credential.getPublicKey();
-		BigInteger n = issuer_pk.getModulus();
 
 		// Z = A^{e_commit} * S^{v_commit}
 		//     PROD_{i \in undisclosed} ( R_i^{a_commits{i}} )
-		BigInteger Ae = rand.rand_sig.getA().modPow(rand.e_randomizer, n);
-		BigInteger Sv = issuer_pk.getGeneratorS().modPow(rand.v_randomizer, n);
-		coms.Z = Ae.multiply(Sv).mod(n);
+		// where we compute the powers that have not been precomputed
+		Statement statement = new Statement(issuer_pk);
+		if (rand.Z_partial != null) {
+			statement.factor(rand.Z_partial);
+		} else {
+			statement.secretPower(rand.rand_sig.getA(), rand.e_randomizer);
+			statement.power(issuer_pk.getFixedBaseS(), rand.v_randomizer);
+		}
 		for(Integer i : undisclosed_attributes) {
-			coms.Z = coms.Z.multiply(issuer_pk.getGeneratorR(i).
-					modPow(rand.a_randomizers.get(i), n)).mod(n);
+			BigInteger commitment = rand.a_commitments.get(i);
+			if (commitment != null)
+				statement.factor(commitment);
+			else
+				statement.power(issuer_pk.getFixedBaseR(i), rand.a_randomizers.get(i));
 		}
+		coms.Z = statement.evaluate();
 
 		coms.A = rand.rand_sig.getA();
 
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.CLSignature;
+import org.irmacard.credentials.idemix.IdemixCredential;
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
+import org.irmacard.credentials.idemix.util.Randomness;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The parts of a disclosure proof of a credential that depend neither on the challenge nor on which attributes
+ * are disclosed: a randomized signature, the randomizers of the proof and their commitments. Each instance must be
+ * used for at most one proof. See {@link ProofDPrecomputationPool}.
+ */
+public class ProofDPrecomputation {
+	final CLSignature rand_sig;
+	final BigInteger e_randomizer;
+	final BigInteger v_randomizer;
+	final Map<Integer, BigInteger> a_randomizers;
+
+	/** A'^{e_randomizer} * S^{v_randomizer} */
+	final BigInteger Z_partial;
+	/** R_i^{a_randomizers{i}} for each attribute i */
+	final Map<Integer, BigInteger> a_commitments;
+
+	private ProofDPrecomputation(CLSignature rand_sig, BigInteger e_randomizer, BigInteger v_randomizer,
+	                             Map<Integer, BigInteger> a_randomizers, BigInteger Z_partial,
+	                             Map<Integer, BigInteger> a_commitments) {
+		this.rand_sig = rand_sig;
+		this.e_randomizer = e_randomizer;
+		this.v_randomizer = v_randomizer;
+		this.a_randomizers = a_randomizers;
+		this.Z_partial = Z_partial;
+		this.a_commitments = a_commitments;
+	}
+
+	public static ProofDPrecomputation compute(IdemixCredential credential) {
+		SecureRandom rnd = Randomness.get();
+
+		IdemixPublicKey issuer_pk = credential.getPublicKey();
+		IdemixSystemParameters params = issuer_pk.getSystemParameters();
+
+		CLSignature rand_sig = credential.getSignature().randomize(issuer_pk);
+		BigInteger e_randomizer = new BigInteger(params.get_l_e_commit(), rnd);
+		BigInteger v_randomizer = new BigInteger(params.get_l_v_commit(), rnd);
+		BigInteger Z_partial = new Statement(issuer_pk)
+				.secretPower(rand_sig.getA(), e_randomizer)
+				.power(issuer_pk.getFixedBaseS(), v_randomizer)
+				.evaluate();
+
+		Map<Integer, BigInteger> a_randomizers = new HashMap<>();
+		Map<Integer, BigInteger> a_commitments = new HashMap<>();
+		for (int i = 0; i < credential.getNrAttributes(); i++) {
+			BigInteger randomizer = new BigInteger(params.get_l_m_commit(), rnd);
+			FixedBaseTable R = issuer_pk.getFixedBaseR(i);
+			a_randomizers.put(i, randomizer);
+			a_commitments.put(i, new Statement(issuer_pk).power(R, randomizer).evaluate());
+		}
+
+		return new ProofDPrecomputation(rand_sig, e_randomizer, v_randomizer, a_randomizers, Z_partial, a_commitments);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.IdemixCredential;
+import org.irmacard.credentials.idemix.util.BackgroundFiller;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A bounded store of {@link ProofDPrecomputation}s for a single credential, kept filled in the background
+ * (see {@link IdemixCredential#enablePrecomputation(int)} and {@link BackgroundFiller}). With these, building a disclosure proof of the
+ * credential only requires the exponentiations for the randomizer of the secret key, which is shared between all
+ * proofs of a {@link ProofList}; everything else is a handful of multiplications.</p>
+ *
+ * <p>If the pool is empty when a proof is built, the precomputation is done inline; the number of times this
+ * happened is available from {@link #getDepletedCount()}.</p>
+ *
+ * <p>The pool only refers weakly to its credential, so that a credential that is no longer used can be garbage
+ * collected even while its pool is being filled; filling then stops.</p>
+ */
+public class ProofDPrecomputationPool {
+	private final WeakReference<IdemixCredential> credential;
+	private final BlockingQueue<ProofDPrecomputation> queue;
+
+	private final AtomicLong depleted = new AtomicLong();
+
+	private final BackgroundFiller filler;
+
+	public ProofDPrecomputationPool(IdemixCredential credential, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive");
+
+		this.credential = new WeakReference<>(credential);
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.filler = new BackgroundFiller(new BackgroundFiller.Target() {
+			@Override public boolean needsMore() {
+				return queue.remainingCapacity() > 0 && ProofDPrecomputationPool.this.credential.get() != null;
+			}
+			@Override public void fillOne() {
+				IdemixCredential credential = ProofDPrecomputationPool.this.credential.get();
+				if (credential == null)
+					filler.stop();
+				else
+					queue.offer(ProofDPrecomputation.compute(credential));
+			}
+		}, 1);
+	}
+
+	/**
+	 * Starts keeping the pool filled in the background, on the executor shared by all pools. Filling pauses while
+	 * the pool is full and resumes when precomputations are taken, so an idle pool occupies no thread.
+	 */
+	public void start() {
+		filler.start();
+	}
+
+	/**
+	 * Stops filling the pool in the background. Precomputations that are still in the pool remain available.
+	 */
+	public void stop() {
+		filler.stop();
+	}
+
+	/**
+	 * Fills the pool up to its capacity, in the calling thread.
+	 * @return the amount of precomputations that was added
+	 */
+	public int fill() {
+		int added = 0;
+		IdemixCredential credential = getCredential();
+		while (queue.remainingCapacity() > 0 && queue.offer(ProofDPrecomputation.compute(credential)))
+			added++;
+		return added;
+	}
+
+	/**
+	 * Takes a precomputation from the pool, or computes one if it is empty.
+	 */
+	public ProofDPrecomputation take() {
+		ProofDPrecomputation precomputation = queue.poll();
+		filler.wakeUp();
+		if (precomputation == null) {
+			depleted.incrementAndGet();
+			precomputation = ProofDPrecomputation.compute(getCredential());
+		}
+		return precomputation;
+	}
+
+	private IdemixCredential getCredential() {
+		IdemixCredential credential = this.credential.get();
+		if (credential == null)
+			throw new IllegalStateException("The credential of this pool has been garbage collected");
+		return credential;
+	}
+
+	/** The amount of precomputations currently in the pool. */
+	public int size() {
+		return queue.size();
+	}
+
+	/** The amount of times that a precomputation was taken while the pool was empty. */
+	public long getDepletedCount() {
+		return depleted.get();
+	}
+}
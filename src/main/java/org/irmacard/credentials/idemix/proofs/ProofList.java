@@ -41,6 +41,12 @@ import org.irmacard.credentials.info.SchemeManager;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 
 /**
  * <p>A collection of proofs of knowledge, for one or more disclosure proofs, or for the commitment to the private key
@@ -99,7 +105,14 @@ public class ProofList extends ArrayList<Proof> {
 		if (size() == 0)
 			return true; // All proofs (i.e. none) are bound to all other proofs (i.e. none)
 
-		BigInteger challenge = reconstructChallenge(context, nonce);
+		return isBound(reconstructChallenge(context, nonce));
+	}
+
+	/**
+	 * Checks if the contained proofs are cryptographically bound, given the reconstructed challenge
+	 * (see {@link #reconstructChallenge(BigInteger, BigInteger)}).
+	 */
+	private boolean isBound(BigInteger challenge) {
 		HashMap<String, BigInteger> responses = new HashMap<>();
 
 		for (int i=0; i < size(); ++i) {
@@ -131,39 +144,134 @@ public class ProofList extends ArrayList<Proof> {
 	 * @throws RuntimeException if the collection contains no proofs
 	 */
 	public boolean verify(BigInteger context, BigInteger nonce, boolean shouldBeBound) {
+		return verify(context, nonce, shouldBeBound, null);
+	}
+
+	/**
+	 * Checks the validity of all contained proofs as {@link #verify(BigInteger, BigInteger, boolean)} does,
+	 * but computes the challenge contribution of each proof, and verifies each proof, as separate tasks on the
+	 * specified executor. As soon as one of the proofs turns out to be invalid, the remaining tasks are cancelled.
+	 * @param executor The executor to run the tasks on (e.g. a {@link java.util.concurrent.ForkJoinPool});
+	 *                 if null, all work is done sequentially on the calling thread
+	 * @throws RuntimeException if the collection contains no proofs
+	 */
+	public boolean verify(final BigInteger context, final BigInteger nonce, boolean shouldBeBound,
+	                      Executor executor) {
 		if (size() == 0)
 			return true;
 
 		if (publicKeys == null || (size() != publicKeys.size()))
 			throw new RuntimeException("No public keys to verify the proofs against");
 
-		boolean isBound = isBound(context, nonce);
+		List<Callable<List<BigInteger>>> contributionTasks = new ArrayList<>(size());
+		for (int i = 0; i < size(); ++i) {
+			final Proof proof = get(i);
+			final IdemixPublicKey pk = publicKeys.get(i);
+			if (pk == null)
+				throw new RuntimeException("Missing public key for proof " + i + " of " + size());
+
+			contributionTasks.add(new Callable<List<BigInteger>>() {
+				@Override public List<BigInteger> call() {
+					return proof.getChallengeContribution(pk);
+				}
+			});
+		}
+		// The contributions contain the reconstructed commitments, which are by far the most expensive part of
+		// verification. So we compute them only once, and use them both for the challenge of the bound proofs
+		// and for the challenges of the individual proofs.
+		final List<List<BigInteger>> contributions = runAll(contributionTasks, executor);
+		final BigInteger challenge = hashChallenge(context, nonce, contributions);
+
+		final boolean isBound = isBound(challenge);
 		if (shouldBeBound && !isBound) {
 			return false;
 		}
 
-		Proof proof;
-		IdemixPublicKey pk;
-		BigInteger challenge = null;
-		if (isBound)
-			challenge = reconstructChallenge(context, nonce);
-
+		List<Callable<Boolean>> verifyTasks = new ArrayList<>(size());
 		for (int i=0; i < size(); ++i) {
-			proof = get(i);
-			pk = publicKeys.get(i);
-			if (pk == null)
-				throw new RuntimeException("Missing public key for proof " + i + " of " + size());
+			final Proof proof = get(i);
+			final IdemixPublicKey pk = publicKeys.get(i);
+			final List<BigInteger> contribution = contributions.get(i);
+			verifyTasks.add(new Callable<Boolean>() {
+				@Override public Boolean call() {
+					if (isBound) {
+						return proof.verify(pk, context, nonce, challenge);
+					} else {
+						BigInteger proofChallenge = Crypto.asn1Hash(
+								unboundChallengeInput(context, nonce, contribution));
+						return proof.verify(pk, context, nonce, proofChallenge);
+					}
+				}
+			});
+		}
 
-			if (isBound) {
-				if (!proof.verify(pk, context, nonce, challenge))
-					return false;
-			} else {
-				if (!proof.verify(pk, context, nonce))
-					return false;
+		return runAll(verifyTasks, executor) != null;
+	}
+
+	/**
+	 * The elements over which the challenge of a single unbound proof is computed: the context, the challenge
+	 * contribution of the proof, and the nonce.
+	 */
+	private static List<BigInteger> unboundChallengeInput(BigInteger context, BigInteger nonce,
+	                                                      List<BigInteger> contribution) {
+		List<BigInteger> toHash = new ArrayList<>(contribution.size() + 2);
+		toHash.add(context);
+		toHash.addAll(contribution);
+		toHash.add(nonce);
+		return toHash;
+	}
+
+	/**
+	 * Runs the specified tasks, on the executor if it is not null and sequentially otherwise, and returns their
+	 * results in order. If one of the tasks returns false, the remaining tasks are cancelled and null is returned.
+	 * @throws RuntimeException if one of the tasks throws an exception
+	 */
+	private static <T> List<T> runAll(List<Callable<T>> tasks, Executor executor) {
+		List<T> results = new ArrayList<>(tasks.size());
+
+		if (executor == null) {
+			for (Callable<T> task : tasks) {
+				T result = call(task);
+				if (Boolean.FALSE.equals(result))
+					return null;
+				results.add(result);
 			}
+			return results;
 		}
 
-		return true;
+		CompletionService<T> service = new ExecutorCompletionService<>(executor);
+		List<Future<T>> futures = new ArrayList<>(tasks.size());
+		try {
+			for (Callable<T> task : tasks)
+				futures.add(service.submit(task));
+			for (int i = 0; i < tasks.size(); ++i) {
+				if (Boolean.FALSE.equals(service.take().get()))
+					return null;
+			}
+			for (Future<T> future : futures)
+				results.add(future.get());
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while verifying proofs", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<T> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	private static <T> T call(Callable<T> task) {
+		try {
+			return task.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	public boolean isValid() {
@@ -249,23 +357,34 @@ public class ProofList extends ArrayList<Proof> {
 	 * otherwise have been used as the challenge.</p>
 	 */
 	private BigInteger reconstructChallenge(BigInteger context, BigInteger nonce) {
-		Proof proof;
-		IdemixPublicKey pk;
-		List<BigInteger> toHash = new ArrayList<>(2*size() + 2);
+		List<List<BigInteger>> contributions = new ArrayList<>(size());
+		for (int i = 0; i < size(); ++i) {
+			contributions.add(get(i).getChallengeContribution(publicKeys.get(i)));
+		}
+
+		return hashChallenge(context, nonce, contributions);
+	}
+
+	/**
+	 * Computes the challenge from the context, the challenge contributions of each of the proofs, and the nonce
+	 * (see {@link #reconstructChallenge(BigInteger, BigInteger)}).
+	 */
+	private BigInteger hashChallenge(BigInteger context, BigInteger nonce, List<List<BigInteger>> contributions) {
+		int length = 2;
+		for (List<BigInteger> contribution : contributions)
+			length += contribution.size();
+		List<BigInteger> toHash = new ArrayList<>(length);
 
 		toHash.add(context);
-		for (int i = 0; i < size(); ++i) {
-			proof = get(i);
-			pk = publicKeys.get(i);
-			toHash.addAll(proof.getChallengeContribution(pk));
+		for (List<BigInteger> contribution : contributions) {
+			toHash.addAll(contribution);
 		}
 		toHash.add(nonce);
 
-		BigInteger[] toHashArray = toHash.toArray(new BigInteger[toHash.size()]);
 		if (isSig) {
-			return Crypto.sha256Hash(Crypto.asn1SigEncode(toHashArray));
+			return Crypto.asn1SigHash(toHash);
 		} else {
-			return Crypto.sha256Hash(Crypto.asn1Encode(toHashArray));
+			return Crypto.asn1Hash(toHash);
 		}
 	}
 
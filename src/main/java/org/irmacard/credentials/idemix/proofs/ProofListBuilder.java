@@ -33,10 +33,10 @@ package org.irmacard.credentials.idemix.proofs;
 import org.irmacard.credentials.idemix.CredentialBuilder;
 import org.irmacard.credentials.idemix.IdemixCredential;
 import org.irmacard.credentials.idemix.IdemixSystemParameters1024;
+import org.irmacard.credentials.idemix.util.Randomness;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.util.*;
 
 /**
@@ -104,7 +104,7 @@ public class ProofListBuilder {
 		// otherwise we cannot perform the range proof showing that it is not too large.
 		fixed = new HashMap<String, BigInteger>();
 		fixed.put(ProofBuilder.USER_SECRET_KEY,
-		        new BigInteger(new IdemixSystemParameters1024().get_l_m_commit(), new SecureRandom()));
+		        new BigInteger(new IdemixSystemParameters1024().get_l_m_commit(), Randomness.get()));
 	}
 
 	/**
@@ -146,7 +146,7 @@ public class ProofListBuilder {
 			BigInteger sk = getSecretKey();
 			if (sk == null) {
 				// See comment in constructor
-				sk = new BigInteger(new IdemixSystemParameters1024().get_l_m(), new SecureRandom());
+				sk = new BigInteger(new IdemixSystemParameters1024().get_l_m(), Randomness.get());
 			}
 			builder.setSecret(sk);
 		}
@@ -65,7 +65,7 @@ public class ProofP implements Proof {
 		BigInteger c_prime = challenge;
 		if (c_prime == null) {
 			BigInteger P_commit = reconstructP_commit(pk);
-			c_prime = Crypto.sha256Hash(Crypto.asn1Encode(context, P, P_commit, nonce));
+			c_prime = Crypto.asn1Hash(context, P, P_commit, nonce);
 		}
 
 		boolean matched = c.compareTo(c_prime) == 0;
@@ -106,14 +106,11 @@ public class ProofP implements Proof {
 	}
 
 	public BigInteger reconstructP_commit(IdemixPublicKey pk) {
-		BigInteger n = pk.getModulus();
-
-		// Reconstruct U_commit
-		// U_commit = P^{-c} * R_0^{s_response}
-		BigInteger Uc = P.modPow(this.c.negate(), n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(this.s_response, n);
-
-		return Uc.multiply(R0s).mod(n);
+		// P_commit = P^{-c} * R_0^{s_response}
+		return new Statement(pk)
+				.power(P, c.negate())
+				.power(pk.getFixedBaseR(0), s_response)
+				.evaluate();
 	}
 
 	public ProofP mergeProofP(ProofP p, IdemixPublicKey pk) {
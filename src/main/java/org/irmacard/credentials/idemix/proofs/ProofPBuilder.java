@@ -40,6 +40,8 @@ import java.util.Map;
 import de.henku.jpaillier.PublicKey;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.IdemixSystemParameters;
+import org.irmacard.credentials.idemix.util.Arithmetic;
+import org.irmacard.credentials.idemix.util.Randomness;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
 
 public class ProofPBuilder extends ProofBuilder {
@@ -82,12 +84,12 @@ public class ProofPBuilder extends ProofBuilder {
 		this.s = s;
 		this.pk = pk;
 
-		this.P = pk.getGeneratorR(0).modPow(s, pk.getModulus());
+		this.P = new Statement(pk).power(pk.getFixedBaseR(0), s).evaluate();
 	}
 
 	@Override
 	public ProofBuilder generateRandomizers(Map<String, BigInteger> fixed) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = Randomness.get();
 		rand = new ProofPRandomizers();
 
 		IdemixSystemParameters params = pk.getSystemParameters();
@@ -106,7 +108,7 @@ public class ProofPBuilder extends ProofBuilder {
 		ProofPCommitments coms = new ProofPCommitments();
 
 		coms.P = P;
-		coms.Pcommit = pk.getGeneratorR(0).modPow(rand.s_randomizer, pk.getModulus());
+		coms.Pcommit = new Statement(pk).power(pk.getFixedBaseR(0), rand.s_randomizer).evaluate();
 
 		return coms;
 	}
@@ -124,7 +126,7 @@ public class ProofPBuilder extends ProofBuilder {
 			s_response = rand.s_randomizer.add(challenge.multiply(s));
 		} else {
 			s_response = publicKey.encrypt(rand.s_randomizer).multiply(
-					challenge.modPow(s, publicKey.getnSquared())).mod(publicKey.getnSquared());
+					Arithmetic.modPowSecure(challenge, s, publicKey.getnSquared())).mod(publicKey.getnSquared());
 		}
 
 		return new ProofP(P, challenge, s_response);
@@ -12,6 +12,7 @@ import de.henku.jpaillier.PublicKey;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
 import org.irmacard.credentials.idemix.proofs.ProofPBuilder.ProofPCommitments;
+import org.irmacard.credentials.idemix.util.Randomness;
 import org.irmacard.credentials.info.InfoException;
 import org.irmacard.credentials.info.KeyException;
 import org.irmacard.credentials.info.PublicKeyIdentifier;
@@ -34,7 +35,7 @@ public class ProofPListBuilder {
 	}
 
 	public ProofPListBuilder generateRandomizers() {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = Randomness.get();
 
 		// FIXME: size of randomness for key could be different for different parameters!
 		Map<String, BigInteger> fixed = new HashMap<>();
@@ -34,6 +34,7 @@ import java.math.BigInteger;
 
 import org.irmacard.credentials.idemix.CLSignature;
 import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.util.Arithmetic;
 import org.irmacard.credentials.idemix.util.Crypto;
 
 public class ProofS {
@@ -66,17 +67,19 @@ public class ProofS {
 			BigInteger context, BigInteger nonce) {
 		BigInteger n = pk.getModulus();
 
-		// Reconstruct A_commit
-		// A_commit = A^{c + e_response * e}
-		BigInteger exponent = c.add(e_response.multiply(signature.get_e()));
-		BigInteger A_commit = signature.getA().modPow(exponent, n);
-
 		// Reconstruct Q
-		BigInteger Q = signature.getA().modPow(signature.get_e(), n);
+		BigInteger Q = Arithmetic.modPow(signature.getA(), signature.get_e(), n);
+
+		// Reconstruct A_commit
+		// A_commit = A^{c + e_response * e} = A^c * Q^{e_response}
+		BigInteger A_commit = new Statement(pk)
+				.power(signature.getA(), c)
+				.power(Q, e_response)
+				.evaluate();
 
 		// Recalculate hash
-		BigInteger c_prime = Crypto.sha256Hash(Crypto.asn1Encode(context, Q,
-				signature.getA(), nonce, A_commit));
+		BigInteger c_prime = Crypto.asn1Hash(context, Q,
+				signature.getA(), nonce, A_commit);
 
 		boolean matched = c.compareTo(c_prime) == 0;
 
@@ -60,22 +60,16 @@ public class ProofU implements Proof {
 	}
 
 	public boolean verify(IdemixPublicKey pk, BigInteger context, BigInteger nonce, BigInteger challenge) {
-		IdemixSystemParameters params = pk.getSystemParameters();
-
-		// Check range of v_prime_response
-		BigInteger maximum = Crypto.TWO.pow(params.get_l_v_prime_commit() + 1).subtract(BigInteger.ONE);
-		BigInteger minimum = maximum.negate();
-		if (!(v_prime_response.compareTo(minimum) >= 0 && v_prime_response
-				.compareTo(maximum) <= 0)) {
-			System.out.println("Range check on v_prime_response failed");
+		Statement statement = statement(pk);
+		if (!statement.checkBounds()) {
 			return false;
 		}
 
 		// Recalculate hash
 		BigInteger c_prime = challenge;
 		if (c_prime == null) {
-			BigInteger U_commit = reconstructU_commit(pk);
-			c_prime = Crypto.sha256Hash(Crypto.asn1Encode(context, U, U_commit, nonce));
+			BigInteger U_commit = statement.evaluate();
+			c_prime = Crypto.asn1Hash(context, U, U_commit, nonce);
 		}
 
 		boolean matched = c.compareTo(c_prime) == 0;
@@ -103,15 +97,21 @@ public class ProofU implements Proof {
 	}
 
 	public BigInteger reconstructU_commit(IdemixPublicKey pk) {
-		BigInteger n = pk.getModulus();
+		return statement(pk).evaluate();
+	}
 
-		// Reconstruct U_commit
-		// U_commit = U^{-c} * S^{v_prime_response} * R_0^{s_response}
-		BigInteger Uc = U.modPow(this.c.negate(), n);
-		BigInteger Sv = pk.getGeneratorS().modPow(this.v_prime_response, n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(this.s_response, n);
+	/**
+	 * The statement of this proof: the reconstruction of U_commit, and the bound on v_prime_response.
+	 */
+	private Statement statement(IdemixPublicKey pk) {
+		IdemixSystemParameters params = pk.getSystemParameters();
 
-		return Uc.multiply(Sv).multiply(R0s).mod(n);
+		// U_commit = U^{-c} * S^{v_prime_response} * R_0^{s_response}
+		return new Statement(pk)
+				.power(U, c.negate())
+				.power(pk.getFixedBaseS(), v_prime_response)
+				.power(pk.getFixedBaseR(0), s_response)
+				.bound("v_prime_response", v_prime_response, params.get_l_v_prime_commit() + 1);
 	}
 
 	public BigInteger getU() { return U; }
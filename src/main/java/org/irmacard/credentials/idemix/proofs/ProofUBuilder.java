@@ -103,14 +103,14 @@ public class ProofUBuilder extends ProofBuilder {
 	public ProofUCommitments calculateCommitments() {
 		ProofUCommitments coms = new ProofUCommitments(cb.getPublicKey());
 		IdemixPublicKey pk = cb.getPublicKey();
-		BigInteger n = pk.getModulus();
 
 		coms.U = cb.commitmentToSecret();
 
 		// U_commit = S^{v_prime_commit} * R_0^{s_commit}
-		BigInteger Sv = pk.getGeneratorS().modPow(rand.v_prime_commit, n);
-		BigInteger R0s = pk.getGeneratorR(0).modPow(rand.s_commit, n);
-		coms.U_commit = Sv.multiply(R0s).mod(n);
+		coms.U_commit = new Statement(pk)
+				.power(pk.getFixedBaseS(), rand.v_prime_commit)
+				.power(pk.getFixedBaseR(0), rand.s_commit)
+				.evaluate();
 
 		return coms;
 	}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.proofs;
+
+import org.irmacard.credentials.idemix.IdemixPublicKey;
+import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
+import org.irmacard.credentials.idemix.util.ModularProduct;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>The part of a Schnorr-style (sigma) proof that is shared by all proof types in this package: a product of
+ * powers modulo the modulus of a public key, together with the bounds that the responses must satisfy. The provers
+ * use it to compute their commitments (with the randomizers as exponents), and the verifiers use it to
+ * reconstruct these commitments from the responses, the challenge and the public values.</p>
+ *
+ * <p>Powers of the generators of the public key are evaluated together using their precomputation tables, and
+ * powers of other bases (signatures, commitments) together using multi-exponentiation, all accumulating into one
+ * {@link ModularProduct}, so that each proof type benefits from improvements to these. Statements only exist during the computation, they are not part of the
+ * serialized proofs.</p>
+ */
+class Statement {
+	private final BigInteger n;
+
+	private final List<FixedBaseTable> generators = new ArrayList<>();
+	private final List<BigInteger> generatorExponents = new ArrayList<>();
+	private final List<BigInteger> bases = new ArrayList<>();
+	private final List<BigInteger> baseExponents = new ArrayList<>();
+	private final List<BigInteger> secretBases = new ArrayList<>();
+	private final List<BigInteger> secretExponents = new ArrayList<>();
+	private final List<BigInteger> factors = new ArrayList<>();
+
+	private final List<String> boundNames = new ArrayList<>();
+	private final List<BigInteger> boundValues = new ArrayList<>();
+	private final List<Integer> boundBits = new ArrayList<>();
+
+	Statement(IdemixPublicKey pk) {
+		this.n = pk.getModulus();
+	}
+
+	/**
+	 * Adds a power of a generator of the public key to the product.
+	 */
+	Statement power(FixedBaseTable generator, BigInteger exponent) {
+		generators.add(generator);
+		generatorExponents.add(exponent);
+		return this;
+	}
+
+	/**
+	 * Adds a power of another base to the product. The exponent may be negative.
+	 */
+	Statement power(BigInteger base, BigInteger exponent) {
+		bases.add(base);
+		baseExponents.add(exponent);
+		return this;
+	}
+
+	/**
+	 * Adds a power of another base with a secret exponent to the product
+	 * (see {@link ModularProduct#multiplySecretPow(BigInteger, BigInteger)}).
+	 */
+	Statement secretPower(BigInteger base, BigInteger exponent) {
+		secretBases.add(base);
+		secretExponents.add(exponent);
+		return this;
+	}
+
+	/**
+	 * Adds a known factor to the product, such as a precomputed power.
+	 */
+	Statement factor(BigInteger factor) {
+		factors.add(factor);
+		return this;
+	}
+
+	/**
+	 * Requires that the specified value lies in [-2^bits + 1, 2^bits - 1].
+	 */
+	Statement bound(String name, BigInteger value, int bits) {
+		boundNames.add(name);
+		boundValues.add(value);
+		boundBits.add(bits);
+		return this;
+	}
+
+	/**
+	 * Checks whether all values satisfy their bounds (see {@link #bound(String, BigInteger, int)}).
+	 */
+	boolean checkBounds() {
+		for (int i = 0; i < boundValues.size(); i++) {
+			BigInteger maximum = Crypto.TWO.pow(boundBits.get(i)).subtract(BigInteger.ONE);
+			if (boundValues.get(i).abs().compareTo(maximum) > 0) {
+				System.out.println("Range check on " + boundNames.get(i) + " failed");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the product of all powers modulo n.
+	 */
+	BigInteger evaluate() {
+		ModularProduct product = new ModularProduct(n)
+				.multiplyFixedPowers(generators, generatorExponents)
+				.multiplyPowers(bases, baseExponents);
+		for (int i = 0; i < secretBases.size(); i++)
+			product.multiplySecretPow(secretBases.get(i), secretExponents.get(i));
+		for (BigInteger factor : factors)
+			product.multiply(factor);
+		return product.get();
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+
+/**
+ * <p>Gives access to the {@link ArithmeticBackend} that performs the modular exponentiations of the Idemix code.
+ * The backend is selected at startup using the system property {@code irma.arithmetic}, which may be
+ * {@code java} (the default, see {@link JavaArithmetic}), {@code gmp} (see {@link GmpArithmetic}; if it is not
+ * available the default is used), or the fully qualified name of a class implementing {@link ArithmeticBackend}.
+ * It can also be changed later on using {@link #setBackend(ArithmeticBackend)}.</p>
+ */
+public class Arithmetic {
+	public static final String BACKEND_PROPERTY = "irma.arithmetic";
+
+	private static volatile ArithmeticBackend backend = createBackend(System.getProperty(BACKEND_PROPERTY, "java"));
+
+	private Arithmetic() {}
+
+	public static ArithmeticBackend getBackend() {
+		return backend;
+	}
+
+	public static void setBackend(ArithmeticBackend backend) {
+		if (backend == null)
+			throw new IllegalArgumentException("Backend must not be null");
+		Arithmetic.backend = backend;
+	}
+
+	/**
+	 * Returns base^exponent mod modulus using the current backend. The exponent may be negative.
+	 */
+	public static BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus) {
+		return backend.modPow(base, exponent, modulus);
+	}
+
+	/**
+	 * Returns base^exponent mod modulus using the current backend, for when the exponent or modulus is secret.
+	 * The exponent may be negative.
+	 */
+	public static BigInteger modPowSecure(BigInteger base, BigInteger exponent, BigInteger modulus) {
+		return backend.modPowSecure(base, exponent, modulus);
+	}
+
+	private static ArithmeticBackend createBackend(String name) {
+		switch (name) {
+			case "java":
+				return new JavaArithmetic();
+			case "gmp":
+				if (GmpArithmetic.isAvailable())
+					return new GmpArithmetic();
+				System.out.println("GMP arithmetic backend not available, falling back to Java");
+				return new JavaArithmetic();
+			default:
+				try {
+					return (ArithmeticBackend) Class.forName(name).newInstance();
+				} catch (ReflectiveOperationException|ClassCastException e) {
+					throw new IllegalArgumentException("Cannot instantiate arithmetic backend " + name, e);
+				}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+
+/**
+ * Provider of the modular exponentiations that are used throughout the Idemix code, so that these can be
+ * delegated to a faster implementation than {@link BigInteger#modPow(BigInteger, BigInteger)} when one is
+ * available. See {@link Arithmetic} for selecting the backend.
+ */
+public interface ArithmeticBackend {
+	/**
+	 * Returns base^exponent mod modulus. The exponent may be negative, in which case the base must be invertible.
+	 */
+	BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus);
+
+	/**
+	 * As {@link #modPow(BigInteger, BigInteger, BigInteger)}, for use when the exponent or the modulus is secret.
+	 * Implementations that can should then use an algorithm whose timing and memory access pattern do not depend
+	 * on the exponent.
+	 */
+	BigInteger modPowSecure(BigInteger base, BigInteger exponent, BigInteger modulus);
+
+	/**
+	 * A name of this backend, for diagnostics.
+	 */
+	String getName();
+}
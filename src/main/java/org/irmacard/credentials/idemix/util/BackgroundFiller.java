@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Keeps a pool of precomputed values filled using a small executor that is shared by all pools, instead of
+ * each pool running its own background thread. A filler only runs while its pool has room: each task computes
+ * a single value and then resubmits itself if the pool is still not full, so that the pools take turns on the
+ * shared threads, and a full pool occupies no thread at all (nor does anything on the executor reference it).
+ * Pools call {@link #wakeUp()} whenever they hand out a value, so that filling resumes.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class BackgroundFiller {
+	/**
+	 * The pool that is kept filled.
+	 */
+	public interface Target {
+		/** Whether the pool has room for another value. */
+		boolean needsMore();
+
+		/** Computes a single value and adds it to the pool, if it still has room. */
+		void fillOne();
+	}
+
+	private static ExecutorService executor;
+
+	private final Target target;
+	private final int parallelism;
+	private final AtomicInteger scheduled = new AtomicInteger();
+	private volatile boolean running = false;
+
+	private final Runnable task = new Runnable() {
+		@Override public void run() {
+			try {
+				if (running && target.needsMore())
+					target.fillOne();
+			} finally {
+				scheduled.decrementAndGet();
+			}
+			// Checked after decrementing, so that a value taken while we were computing is not missed
+			if (running && target.needsMore())
+				wakeUp();
+		}
+	};
+
+	/**
+	 * @param parallelism maximum amount of values of the target that is computed concurrently
+	 */
+	public BackgroundFiller(Target target, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be positive");
+		this.target = target;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Returns the executor on which all pools are filled. Unless set otherwise using
+	 * {@link #setExecutor(ExecutorService)}, this is a pool of low-priority daemon threads, one less than the
+	 * amount of processors (with a minimum of one), so that filling never starves the foreground work.
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "BackgroundFiller-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Sets the executor on which the pools are filled. The previous executor is not shut down.
+	 */
+	public static synchronized void setExecutor(ExecutorService executor) {
+		BackgroundFiller.executor = executor;
+	}
+
+	/** Starts filling the target until it is full. */
+	public void start() {
+		running = true;
+		wakeUp();
+	}
+
+	/**
+	 * Stops filling the target. Values that are being computed at this moment are still added to the target.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Schedules filling the target if it is running and not already being filled at full parallelism.
+	 */
+	public void wakeUp() {
+		while (running) {
+			int current = scheduled.get();
+			if (current >= parallelism)
+				return;
+			if (!scheduled.compareAndSet(current, current + 1))
+				continue;
+
+			try {
+				getExecutor().execute(task);
+			} catch (RejectedExecutionException e) {
+				scheduled.decrementAndGet();
+				return;
+			}
+		}
+	}
+}
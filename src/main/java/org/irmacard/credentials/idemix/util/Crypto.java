@@ -40,12 +40,29 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class Crypto {
 	public static final BigInteger TWO = new BigInteger("2");
 
+	private static final byte DER_SEQUENCE = 0x30;
+	private static final byte DER_INTEGER = 0x02;
+	private static final byte[] DER_TRUE = { 0x01, 0x01, (byte) 0xff };
+
+	// MessageDigest instances are not thread-safe, so each thread gets its own
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		@Override protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				e.printStackTrace();
+				throw new RuntimeException("Algorithm SHA-256 not found");
+			}
+		}
+	};
+
 	/**
 	 * Creates a random integer in the range [-2^bitlength + 1, 2^bitlength - 1]
 	 *
@@ -55,7 +72,7 @@ public class Crypto {
 	 * @return				a random signed integer in the given range
 	 */
 	public static BigInteger randomSignedInteger(int bitlength) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = Randomness.get();
 
 		BigInteger maximum = TWO.pow(bitlength).subtract(BigInteger.ONE);
 		BigInteger unsigned_maximum = maximum.multiply(TWO);
@@ -68,7 +85,7 @@ public class Crypto {
 	}
 
 	public static BigInteger randomUnsignedInteger(int bitlength) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = Randomness.get();
 		return new BigInteger(bitlength, rnd);
 	}
 
@@ -80,7 +97,7 @@ public class Crypto {
 	 * @return An elemement in Z_{modulus}^*
 	 */
 	public static BigInteger randomElementMultiplicativeGroup(BigInteger modulus) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = Randomness.get();
 		BigInteger result = BigInteger.ZERO;
 
 		while(result.compareTo(BigInteger.ZERO) <= 0 ||
@@ -162,16 +179,96 @@ public class Crypto {
 	 * @return			The unsigned integer representing the hash value
 	 */
 	public static BigInteger sha256Hash(byte[] input) {
-		byte[] hash = null;
-		try {
-			hash = MessageDigest.getInstance("SHA-256").digest(input);
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-			throw new RuntimeException("Algorithm SHA-256 not found");
-		}
+		MessageDigest digest = sha256();
+		digest.reset();
 
 		// Interpret the value as a _positive_ integer
-		return new BigInteger(1, hash);
+		return new BigInteger(1, digest.digest(input));
+	}
+
+	/**
+	 * The SHA-256 hash of the ASN.1 encoding of the given values, as a positive integer. This equals
+	 * {@code sha256Hash(asn1Encode(values))}, but the encoding is written directly into the hash function,
+	 * without building it in memory first.
+	 *
+	 * @param values	The BigIntegers to include in the ASN.1 encoding
+	 * @return			The unsigned integer representing the hash value
+	 */
+	public static BigInteger asn1Hash(BigInteger... values) {
+		return asn1Hash(Arrays.asList(values));
+	}
+
+	public static BigInteger asn1Hash(List<BigInteger> values) {
+		return hashDerSequence(values, false);
+	}
+
+	/**
+	 * As {@link #asn1Hash(List)}, but equal to {@code sha256Hash(asn1SigEncode(values))}.
+	 */
+	public static BigInteger asn1SigHash(List<BigInteger> values) {
+		return hashDerSequence(values, true);
+	}
+
+	/**
+	 * Feeds to the hash function the DER encoding of a sequence consisting of, optionally, the boolean true,
+	 * the amount of values, and the values.
+	 */
+	private static BigInteger hashDerSequence(List<BigInteger> values, boolean signature) {
+		byte[] count = BigInteger.valueOf(values.size()).toByteArray();
+
+		int length = derIntegerLength(count.length);
+		if (signature)
+			length += DER_TRUE.length;
+		// The two's complement encoding of x (i.e., x.toByteArray()) is always x.bitLength()/8 + 1 bytes long
+		for (BigInteger value : values)
+			length += derIntegerLength(value.bitLength() / 8 + 1);
+
+		MessageDigest digest = sha256();
+		digest.reset();
+
+		digest.update(DER_SEQUENCE);
+		updateDerLength(digest, length);
+		if (signature)
+			digest.update(DER_TRUE);
+		updateDerInteger(digest, count);
+		for (BigInteger value : values)
+			updateDerInteger(digest, value.toByteArray());
+
+		return new BigInteger(1, digest.digest());
+	}
+
+	private static int derIntegerLength(int contentLength) {
+		return 1 + derLengthLength(contentLength) + contentLength;
+	}
+
+	private static int derLengthLength(int length) {
+		if (length < 0x80)
+			return 1;
+		int bytes = 1;
+		while ((length >>>= 8) != 0)
+			bytes++;
+		return 1 + bytes;
+	}
+
+	private static void updateDerInteger(MessageDigest digest, byte[] content) {
+		digest.update(DER_INTEGER);
+		updateDerLength(digest, content.length);
+		digest.update(content);
+	}
+
+	private static void updateDerLength(MessageDigest digest, int length) {
+		if (length < 0x80) {
+			digest.update((byte) length);
+			return;
+		}
+		int bytes = derLengthLength(length) - 1;
+		digest.update((byte) (0x80 | bytes));
+		for (int i = bytes - 1; i >= 0; i--)
+			digest.update((byte) (length >>> (8 * i)));
+	}
+
+	private static MessageDigest sha256() {
+		return digests.get();
 	}
 
 	/**
@@ -188,7 +285,7 @@ public class Crypto {
 	 * @return A number in the given range that is probably prime
 	 */
 	public static BigInteger probablyPrimeInBitRange(int start_in_bits, int length_in_bits) {
-		SecureRandom rnd = new SecureRandom();
+		SecureRandom rnd = Randomness.get();
 		BigInteger start = TWO.pow(start_in_bits);
 		BigInteger end = start.add(TWO.pow(length_in_bits));
 		BigInteger prime = end;
@@ -220,31 +317,54 @@ public class Crypto {
 			throw new RuntimeException("Not enough bases to represent exponents");
 		}
 
-		BigInteger r = BigInteger.ONE;
-		BigInteger tmp;
-		BigInteger exponent;
-		for (int i = 0; i < exps.size(); i++) {
-			exponent = exps.get(i);
-			if (exponent.bitLength() > maxMessageLength) {
-				byte[] array = exponent.toByteArray();
-
-				// .toByteArray() uses two's complement to serialize to bits - i.e., the most significant bit
-				// is the sign bit, which is always 0 as attributes are always positive. If the amount of
-				// bits of the bigint is divisible by 8 (after possibly left-bitshifting for the presence
-				// bit), so that the most significant bit would be 1, .toByteArray() prepends an extra 0-byte
-				// to achieve this. This contrasts with Go's .Bytes() method on *big.Int as this method
-				// ignores the bigint's sign. In order to be compatible with Go's implementation, we strip
-				// off the leading 0-byte in this case.
-				if (array[0] == 0)
-					array = Arrays.copyOfRange(array, 1, array.length);
-				exponent = Crypto.sha256Hash(array);
-			}
-			// tmp = bases_i ^ exps_i (mod modulus), with exps_i hashed if it exceeds maxMessageLength
-			tmp = bases.get(i).modPow(exponent, modulus);
+		// exps_i is hashed if it exceeds maxMessageLength
+		List<BigInteger> exponents = new ArrayList<>(exps.size());
+		for (BigInteger exponent : exps) {
+			exponents.add(shortenExponent(exponent, maxMessageLength));
+		}
+		return MultiExponentiation.multiPow(bases.subList(0, exps.size()), exponents, modulus);
+	}
 
-			// r = r * tmp (mod modulus)
-			r = r.multiply(tmp).mod(modulus);
+	/**
+	 * As {@link #representToBases(List, List, BigInteger, int)}, but using precomputation tables for the bases.
+	 * All tables must have the same modulus.
+	 *
+	 * @param bases		tables of the bases to represent exponents in
+	 * @param exps		exponents to represent
+	 * @return			representation of the exponents in terms of the bases
+	 */
+	public static BigInteger representToBases(List<FixedBaseTable> bases,
+			List<BigInteger> exps, int maxMessageLength) {
+
+		if (bases.size() < exps.size()) {
+			throw new RuntimeException("Not enough bases to represent exponents");
 		}
-		return r;
+
+		List<BigInteger> exponents = new ArrayList<>(exps.size());
+		for (BigInteger exponent : exps) {
+			exponents.add(shortenExponent(exponent, maxMessageLength));
+		}
+		return FixedBaseTable.multiPow(bases.subList(0, exps.size()), exponents);
+	}
+
+	/**
+	 * Returns the exponent itself if it fits within maxMessageLength bits, or its hash otherwise.
+	 */
+	private static BigInteger shortenExponent(BigInteger exponent, int maxMessageLength) {
+		if (exponent.bitLength() <= maxMessageLength)
+			return exponent;
+
+		byte[] array = exponent.toByteArray();
+
+		// .toByteArray() uses two's complement to serialize to bits - i.e., the most significant bit
+		// is the sign bit, which is always 0 as attributes are always positive. If the amount of
+		// bits of the bigint is divisible by 8 (after possibly left-bitshifting for the presence
+		// bit), so that the most significant bit would be 1, .toByteArray() prepends an extra 0-byte
+		// to achieve this. This contrasts with Go's .Bytes() method on *big.Int as this method
+		// ignores the bigint's sign. In order to be compatible with Go's implementation, we strip
+		// off the leading 0-byte in this case.
+		if (array[0] == 0)
+			array = Arrays.copyOfRange(array, 1, array.length);
+		return Crypto.sha256Hash(array);
 	}
 }
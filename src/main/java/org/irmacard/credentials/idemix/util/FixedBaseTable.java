@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Precomputed powers of a fixed base modulo a fixed modulus, for computing powers of that base using far fewer
+ * multiplications than {@link BigInteger#modPow(BigInteger, BigInteger)} needs (which always performs one squaring
+ * per bit of the exponent). The table contains base^(2^(w*j)) for each w-bit digit j of the largest exponent that
+ * we expect; exponentiating then requires one multiplication per nonzero digit, plus a fixed amount of
+ * multiplications to combine the results per digit value (the method of Brickell, Gordon, McCurley and Wilson).</p>
+ *
+ * <p>The same combination step can be shared across all bases involved in a product of powers
+ * (see {@link #multiPow(List, List)}), which makes products over many generators of a public key especially
+ * cheap.</p>
+ *
+ * <p>Instances are immutable and may be shared between threads.</p>
+ */
+public class FixedBaseTable {
+	/** Width in bits of the exponent digits. */
+	private static final int WINDOW = 6;
+
+	private static final int DIGIT_MASK = (1 << WINDOW) - 1;
+
+	private final BigInteger base;
+	private final Montgomery mont;
+	private final int maxBits;
+
+	// powers[j] = base^(2^(WINDOW*j)), in Montgomery form
+	private final int[][] powers;
+
+	/**
+	 * Precompute the powers of the specified base.
+	 * @param base The base
+	 * @param modulus The modulus, which must be odd
+	 * @param maxBits The maximum bitlength of exponents that should be supported by the table. Larger exponents
+	 *                are still accepted but don't benefit from the table.
+	 */
+	public FixedBaseTable(BigInteger base, BigInteger modulus, int maxBits) {
+		this.base = base;
+		this.mont = Montgomery.forModulus(modulus);
+		this.maxBits = maxBits;
+
+		int digits = (maxBits + WINDOW - 1) / WINDOW;
+		int[] scratch = mont.newScratch();
+		int[] current = mont.toMontgomery(base);
+
+		powers = new int[digits][];
+		for (int j = 0; j < digits; j++) {
+			powers[j] = current.clone();
+			if (j < digits - 1) {
+				for (int k = 0; k < WINDOW; k++)
+					mont.multiply(current, current, current, scratch);
+			}
+		}
+	}
+
+	public BigInteger getBase() {
+		return base;
+	}
+
+	public BigInteger getModulus() {
+		return mont.getModulus();
+	}
+
+	public int getMaxBits() {
+		return maxBits;
+	}
+
+	/**
+	 * Returns base^exponent mod modulus. The exponent may be negative.
+	 */
+	public BigInteger pow(BigInteger exponent) {
+		return multiPow(Collections.singletonList(this), Collections.singletonList(exponent));
+	}
+
+	/**
+	 * Returns the product of tables[i].base^exponents[i] over all i, modulo the modulus of the tables.
+	 * Exponents may be negative.
+	 * @throws IllegalArgumentException if the amount of tables and exponents differ, or if the tables do not
+	 *                                  all have the same modulus
+	 */
+	public static BigInteger multiPow(List<FixedBaseTable> tables, List<BigInteger> exponents) {
+		if (tables.size() != exponents.size())
+			throw new IllegalArgumentException("Amount of bases and exponents differ");
+		if (tables.isEmpty())
+			return BigInteger.ONE;
+
+		return new ModularProduct(tables.get(0).getModulus()).multiplyFixedPowers(tables, exponents).get();
+	}
+
+	/**
+	 * Multiplies the product of tables[i].base^exponents[i] over all i into acc, which is in Montgomery form.
+	 * @param buckets DIGIT_MASK + 1 (see {@link #newBuckets(Montgomery)}) buffers of the size of the modulus
+	 * @param tmp two temporary buffers of the size of the modulus
+	 */
+	static void multiplyPowers(Montgomery mont, List<FixedBaseTable> tables, List<BigInteger> exponents,
+	                           int[] acc, int[][] buckets, int[][] tmp, int[] scratch) {
+		if (tables.size() != exponents.size())
+			throw new IllegalArgumentException("Amount of bases and exponents differ");
+
+		BigInteger modulus = mont.getModulus();
+		boolean[] positive = new boolean[DIGIT_MASK + 1];
+		boolean[] negative = null;
+
+		for (int i = 0; i < tables.size(); ++i) {
+			FixedBaseTable table = tables.get(i);
+			BigInteger exponent = exponents.get(i);
+			if (!table.getModulus().equals(modulus))
+				throw new IllegalArgumentException("Tables do not have the same modulus");
+
+			if (exponent.signum() == 0)
+				continue;
+			if (exponent.bitLength() > table.maxBits) {
+				mont.toMontgomery(Arithmetic.modPow(table.base, exponent, modulus), tmp[0], scratch);
+				mont.multiply(acc, tmp[0], acc, scratch);
+				continue;
+			}
+
+			if (exponent.signum() < 0) {
+				// Handled in a second pass, so that we need only one inversion
+				if (negative == null)
+					negative = new boolean[DIGIT_MASK + 1];
+				continue;
+			}
+			table.accumulate(exponent, buckets, positive, scratch);
+		}
+		if (combine(mont, buckets, positive, tmp[0], tmp[1], scratch))
+			mont.multiply(acc, tmp[0], acc, scratch);
+
+		if (negative != null) {
+			for (int i = 0; i < tables.size(); ++i) {
+				FixedBaseTable table = tables.get(i);
+				BigInteger exponent = exponents.get(i);
+				if (exponent.signum() < 0 && exponent.bitLength() <= table.maxBits)
+					table.accumulate(exponent.negate(), buckets, negative, scratch);
+			}
+			if (!combine(mont, buckets, negative, tmp[0], tmp[1], scratch))
+				return;
+			BigInteger inverse = mont.fromMontgomery(tmp[0], tmp[1], scratch).modInverse(modulus);
+			mont.toMontgomery(inverse, tmp[0], scratch);
+			mont.multiply(acc, tmp[0], acc, scratch);
+		}
+	}
+
+	static int[][] newBuckets(Montgomery mont) {
+		return new int[DIGIT_MASK + 1][mont.size()];
+	}
+
+	/**
+	 * Multiply, for each digit j of the (positive) exponent, base^(2^(WINDOW*j)) into the bucket belonging to the
+	 * value of that digit. Buckets that are not yet in use are overwritten.
+	 */
+	private void accumulate(BigInteger exponent, int[][] buckets, boolean[] used, int[] scratch) {
+		int[] limbs = Montgomery.toLimbs(exponent, (exponent.bitLength() + 31) / 32);
+		int digits = (exponent.bitLength() + WINDOW - 1) / WINDOW;
+
+		for (int j = 0; j < digits; j++) {
+			int digit = digit(limbs, j * WINDOW);
+			if (digit == 0)
+				continue;
+			if (!used[digit]) {
+				System.arraycopy(powers[j], 0, buckets[digit], 0, powers[j].length);
+				used[digit] = true;
+			} else {
+				mont.multiply(buckets[digit], powers[j], buckets[digit], scratch);
+			}
+		}
+	}
+
+	/**
+	 * Sets result to the product of buckets[d]^d over all digit values d that are in use, computed as a product
+	 * of running products so that it only takes two multiplications per digit value.
+	 * @return false if no bucket was in use, in which case result is untouched
+	 */
+	private static boolean combine(Montgomery mont, int[][] buckets, boolean[] used, int[] result, int[] running,
+	                            int[] scratch) {
+		boolean started = false;
+		boolean runningStarted = false;
+
+		for (int d = DIGIT_MASK; d > 0; d--) {
+			if (used[d]) {
+				if (!runningStarted)
+					System.arraycopy(buckets[d], 0, running, 0, running.length);
+				else
+					mont.multiply(running, buckets[d], running, scratch);
+				runningStarted = true;
+			}
+			if (runningStarted) {
+				if (!started)
+					System.arraycopy(running, 0, result, 0, result.length);
+				else
+					mont.multiply(result, running, result, scratch);
+				started = true;
+			}
+		}
+
+		return started;
+	}
+
+	private static int digit(int[] limbs, int bit) {
+		int index = bit >>> 5;
+		long value = limbs[index] & 0xffffffffL;
+		if (index + 1 < limbs.length)
+			value |= (limbs[index + 1] & 0xffffffffL) << 32;
+		return (int) (value >>> (bit & 31)) & DIGIT_MASK;
+	}
+}
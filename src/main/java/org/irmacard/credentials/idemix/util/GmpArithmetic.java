@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+
+/**
+ * <p>An {@link ArithmeticBackend} that uses the GNU Multiple Precision library, whose modular exponentiation
+ * is several times faster than that of {@link BigInteger}, and which offers a variant whose timing does not depend
+ * on the exponent (mpz_powm_sec) for secret exponents.</p>
+ *
+ * <p>This requires the native library irmagmp (libirmagmp.so on Linux) on the java.library.path, which can be built
+ * from src/main/native/irmagmp.c against a locally installed libgmp using {@code gradle buildGmp} or
+ * src/main/native/build.sh. Use {@link #isAvailable()} to check if it could be loaded, and
+ * {@link #getLoadError()} for the reason if it could not.</p>
+ */
+public class GmpArithmetic implements ArithmeticBackend {
+	private static final boolean available;
+	private static final String loadError;
+
+	static {
+		String error = null;
+		try {
+			System.loadLibrary("irmagmp");
+		} catch (UnsatisfiedLinkError|SecurityException e) {
+			error = e.getMessage();
+		}
+		loadError = error;
+		available = error == null;
+	}
+
+	/**
+	 * @throws IllegalStateException if the native library could not be loaded
+	 */
+	public GmpArithmetic() {
+		if (!available)
+			throw new IllegalStateException("Native library irmagmp not found on the java.library.path");
+	}
+
+	/**
+	 * Whether the native library could be loaded.
+	 */
+	public static boolean isAvailable() {
+		return available;
+	}
+
+	/**
+	 * Why the native library could not be loaded, or null if it was loaded.
+	 */
+	public static String getLoadError() {
+		return loadError;
+	}
+
+	@Override
+	public BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus) {
+		return powm(base, exponent, modulus, false);
+	}
+
+	@Override
+	public BigInteger modPowSecure(BigInteger base, BigInteger exponent, BigInteger modulus) {
+		// mpz_powm_sec only supports odd moduli
+		return powm(base, exponent, modulus, modulus.testBit(0));
+	}
+
+	@Override
+	public String getName() {
+		return "gmp";
+	}
+
+	private static BigInteger powm(BigInteger base, BigInteger exponent, BigInteger modulus, boolean secure) {
+		if (modulus.signum() <= 0)
+			throw new ArithmeticException("BigInteger: modulus not positive");
+		if (modulus.equals(BigInteger.ONE))
+			return BigInteger.ZERO;
+		if (exponent.signum() == 0)
+			return BigInteger.ONE;
+		if (exponent.signum() < 0) {
+			base = base.modInverse(modulus);
+			exponent = exponent.negate();
+		}
+
+		byte[] result = powm(base.mod(modulus).toByteArray(), exponent.toByteArray(), modulus.toByteArray(), secure);
+		return new BigInteger(1, result);
+	}
+
+	/**
+	 * Returns base^exponent mod modulus, with all numbers as nonnegative big-endian byte arrays, using
+	 * mpz_powm_sec if secure is true and mpz_powm otherwise.
+	 */
+	private static native byte[] powm(byte[] base, byte[] exponent, byte[] modulus, boolean secure);
+}
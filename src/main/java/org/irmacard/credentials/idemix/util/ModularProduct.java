@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A mutable product modulo a fixed odd modulus, for computing products of powers without allocating a new
+ * {@link BigInteger} for each multiplication and reduction. The product is accumulated in place in Montgomery form
+ * (see {@link Montgomery}), and only converted to a {@link BigInteger} by {@link #get()}. For example,</p>
+ *
+ * <pre>
+ * BigInteger Q = new ModularProduct(n)
+ *         .multiplyPow(A, e)
+ *         .multiplyFixedPowers(pk.getFixedBasesR(), ms)
+ *         .get();
+ * </pre>
+ *
+ * <p>The buffers are reused across operations, and across products after {@link #reset()}. Instances are not
+ * thread-safe.</p>
+ */
+public class ModularProduct {
+	private final Montgomery mont;
+
+	private final int[] acc;
+	private final int[] scratch;
+	private final int[][] tmp;
+	private int[][] buckets;
+
+	/**
+	 * Creates a new product, initially 1, modulo the specified modulus.
+	 * @throws IllegalArgumentException if the modulus is not odd and positive
+	 */
+	public ModularProduct(BigInteger modulus) {
+		this.mont = Montgomery.forModulus(modulus);
+		this.acc = mont.one();
+		this.scratch = mont.newScratch();
+		this.tmp = new int[2][mont.size()];
+	}
+
+	public BigInteger getModulus() {
+		return mont.getModulus();
+	}
+
+	/**
+	 * Multiplies the product by the specified factor.
+	 */
+	public ModularProduct multiply(BigInteger factor) {
+		mont.toMontgomery(factor, tmp[0], scratch);
+		mont.multiply(acc, tmp[0], acc, scratch);
+		return this;
+	}
+
+	/**
+	 * Multiplies the product by base^exponent. The exponent may be negative.
+	 */
+	public ModularProduct multiplyPow(BigInteger base, BigInteger exponent) {
+		if (exponent.signum() != 0)
+			multiply(Arithmetic.modPow(base, exponent, mont.getModulus()));
+		return this;
+	}
+
+	/**
+	 * As {@link #multiplyPow(BigInteger, BigInteger)}, for secret exponents
+	 * (see {@link ArithmeticBackend#modPowSecure(BigInteger, BigInteger, BigInteger)}).
+	 */
+	public ModularProduct multiplySecretPow(BigInteger base, BigInteger exponent) {
+		if (exponent.signum() != 0)
+			multiply(Arithmetic.modPowSecure(base, exponent, mont.getModulus()));
+		return this;
+	}
+
+	/**
+	 * Multiplies the product by prod_i bases[i]^exponents[i], using multi-exponentiation
+	 * (see {@link MultiExponentiation}). Exponents may be negative.
+	 * @throws IllegalArgumentException if the amount of bases and exponents differ
+	 */
+	public ModularProduct multiplyPowers(List<BigInteger> bases, List<BigInteger> exponents) {
+		if (bases.size() != exponents.size())
+			throw new IllegalArgumentException("Amount of bases and exponents differ");
+
+		MultiExponentiation.multiplyPowers(mont, bases, exponents, acc, tmp[0], scratch);
+		return this;
+	}
+
+	/**
+	 * Multiplies the product by prod_i tables[i].base^exponents[i] (see {@link FixedBaseTable}). Exponents may be
+	 * negative.
+	 * @throws IllegalArgumentException if the amount of tables and exponents differ, or if the modulus of a table
+	 *                                  differs from the modulus of this product
+	 */
+	public ModularProduct multiplyFixedPowers(List<FixedBaseTable> tables, List<BigInteger> exponents) {
+		if (buckets == null)
+			buckets = FixedBaseTable.newBuckets(mont);
+
+		FixedBaseTable.multiplyPowers(mont, tables, exponents, acc, buckets, tmp, scratch);
+		return this;
+	}
+
+	/**
+	 * Multiplies the product by table.base^exponent (see {@link FixedBaseTable}). The exponent may be negative.
+	 */
+	public ModularProduct multiplyFixedPow(FixedBaseTable table, BigInteger exponent) {
+		return multiplyFixedPowers(Collections.singletonList(table), Collections.singletonList(exponent));
+	}
+
+	/**
+	 * Resets the product to 1.
+	 */
+	public ModularProduct reset() {
+		mont.setOne(acc);
+		return this;
+	}
+
+	/**
+	 * Returns the product, reduced modulo the modulus.
+	 */
+	public BigInteger get() {
+		return mont.fromMontgomery(acc, tmp[0], scratch);
+	}
+}
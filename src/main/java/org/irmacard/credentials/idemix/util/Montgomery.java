@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Montgomery multiplication modulo a fixed odd modulus. Numbers are little-endian arrays of 32-bit limbs with as
+ * many limbs as the modulus, and are kept in Montgomery form: x is stored as xR mod n, where R = 2^(32*size).
+ * This allows long chains of modular multiplications without allocating a new BigInteger and performing a
+ * division for each step.
+ */
+class Montgomery {
+	private static final long LIMB_MASK = 0xffffffffL;
+
+	private final BigInteger modulus;
+	private final int size;
+	private final int[] n;
+	private final int[] one;
+	private final int[] unit;
+
+	// R^2 mod n, i.e. R in Montgomery form
+	private final int[] rSquared;
+
+	// Contexts of the moduli that are in use, which are few (one per public key). They are kept alive by the
+	// precomputation tables of the public keys that use them.
+	private static final Map<BigInteger, WeakReference<Montgomery>> contexts = new WeakHashMap<>();
+
+	// -n^{-1} mod 2^32
+	private final int nInv;
+
+	Montgomery(BigInteger modulus) {
+		if (modulus.signum() <= 0 || !modulus.testBit(0))
+			throw new IllegalArgumentException("Montgomery arithmetic requires an odd positive modulus");
+
+		this.modulus = modulus;
+		this.size = (modulus.bitLength() + 31) / 32;
+		this.n = toLimbs(modulus, size);
+
+		// Newton iteration for n^{-1} mod 2^32; for odd n, n*n = 1 mod 8 so we start with 3 correct bits
+		int inv = n[0];
+		for (int i = 0; i < 4; i++)
+			inv *= 2 - n[0] * inv;
+		this.nInv = -inv;
+
+		this.one = toLimbs(BigInteger.ONE.shiftLeft(32 * size).mod(modulus), size);
+		this.unit = new int[size];
+		this.unit[0] = 1;
+		this.rSquared = toLimbs(BigInteger.ONE.shiftLeft(64 * size).mod(modulus), size);
+	}
+
+	/**
+	 * Returns the (shared) context for the specified modulus, creating it if necessary.
+	 */
+	static Montgomery forModulus(BigInteger modulus) {
+		synchronized (contexts) {
+			WeakReference<Montgomery> reference = contexts.get(modulus);
+			Montgomery mont = reference == null ? null : reference.get();
+			if (mont == null) {
+				mont = new Montgomery(modulus);
+				contexts.put(modulus, new WeakReference<>(mont));
+			}
+			return mont;
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	BigInteger getModulus() {
+		return modulus;
+	}
+
+	/**
+	 * Returns a scratch buffer suitable for {@link #multiply(int[], int[], int[], int[])} and
+	 * {@link #square(int[], int[], int[])}.
+	 */
+	int[] newScratch() {
+		return new int[2 * size + 1];
+	}
+
+	/**
+	 * Returns 1 in Montgomery form.
+	 */
+	int[] one() {
+		return one.clone();
+	}
+
+	/**
+	 * Sets out to 1 in Montgomery form.
+	 */
+	void setOne(int[] out) {
+		System.arraycopy(one, 0, out, 0, size);
+	}
+
+	int[] toMontgomery(BigInteger x) {
+		int[] result = new int[size];
+		toMontgomery(x, result, newScratch());
+		return result;
+	}
+
+	/**
+	 * Sets out to x in Montgomery form.
+	 */
+	void toMontgomery(BigInteger x, int[] out, int[] scratch) {
+		if (x.signum() < 0 || x.compareTo(modulus) >= 0)
+			x = x.mod(modulus);
+		toLimbs(x, out);
+		multiply(out, rSquared, out, scratch);
+	}
+
+	BigInteger fromMontgomery(int[] a) {
+		return fromMontgomery(a, new int[size], newScratch());
+	}
+
+	/**
+	 * Converts a from Montgomery form, using the specified temporary buffer of the size of the modulus.
+	 */
+	BigInteger fromMontgomery(int[] a, int[] tmp, int[] scratch) {
+		multiply(a, unit, tmp, scratch);
+		return fromLimbs(tmp);
+	}
+
+	/**
+	 * Sets out to a*b*R^{-1} mod n. The output may be the same array as either of the inputs.
+	 */
+	void multiply(int[] a, int[] b, int[] out, int[] scratch) {
+		int[] t = scratch;
+		for (int j = 0; j <= size; j++)
+			t[j] = 0;
+
+		long n0 = n[0] & LIMB_MASK;
+		for (int i = 0; i < size; i++) {
+			long bi = b[i] & LIMB_MASK;
+
+			// Add a*b_i to t and at the same time add a multiple m of n such that the lowest limb becomes zero,
+			// after which we shift t one limb to the right
+			long p = (t[0] & LIMB_MASK) + (a[0] & LIMB_MASK) * bi;
+			long m = ((int) p * nInv) & LIMB_MASK;
+			long q = (p & LIMB_MASK) + m * n0;
+			long c1 = p >>> 32;
+			long c2 = q >>> 32;
+			for (int j = 1; j < size; j++) {
+				p = (t[j] & LIMB_MASK) + (a[j] & LIMB_MASK) * bi + c1;
+				c1 = p >>> 32;
+				q = (p & LIMB_MASK) + m * (n[j] & LIMB_MASK) + c2;
+				c2 = q >>> 32;
+				t[j - 1] = (int) q;
+			}
+			p = (t[size] & LIMB_MASK) + c1 + c2;
+			t[size - 1] = (int) p;
+			t[size] = (int) (p >>> 32);
+		}
+
+		finish(t, 0, out);
+	}
+
+	/**
+	 * Sets out to a*a*R^{-1} mod n. The output may be the same array as the input. This is cheaper than
+	 * {@link #multiply(int[], int[], int[], int[])} as the cross products a_i*a_j need to be computed only once.
+	 */
+	void square(int[] a, int[] out, int[] scratch) {
+		int[] t = scratch;
+		for (int j = 0; j <= 2 * size; j++)
+			t[j] = 0;
+
+		// Cross products a_i*a_j with i < j
+		for (int i = 0; i < size - 1; i++) {
+			long ai = a[i] & LIMB_MASK;
+			long c = 0;
+			for (int j = i + 1; j < size; j++) {
+				long v = (t[i + j] & LIMB_MASK) + ai * (a[j] & LIMB_MASK) + c;
+				t[i + j] = (int) v;
+				c = v >>> 32;
+			}
+			t[i + size] = (int) c;
+		}
+
+		// Double them and add the squares a_i*a_i
+		int shifted = 0;
+		for (int k = 0; k < 2 * size; k++) {
+			int limb = t[k];
+			t[k] = (limb << 1) | shifted;
+			shifted = limb >>> 31;
+		}
+		long c = 0;
+		for (int i = 0; i < size; i++) {
+			long sq = (a[i] & LIMB_MASK) * (a[i] & LIMB_MASK);
+			long v = (t[2 * i] & LIMB_MASK) + (sq & LIMB_MASK) + c;
+			t[2 * i] = (int) v;
+			v = (t[2 * i + 1] & LIMB_MASK) + (sq >>> 32) + (v >>> 32);
+			t[2 * i + 1] = (int) v;
+			c = v >>> 32;
+		}
+
+		// Montgomery reduction: add multiples of n such that the lower half becomes zero
+		long n0 = n[0] & LIMB_MASK;
+		for (int i = 0; i < size; i++) {
+			long m = (t[i] * nInv) & LIMB_MASK;
+			long v = (t[i] & LIMB_MASK) + m * n0;
+			c = v >>> 32;
+			for (int j = 1; j < size; j++) {
+				v = (t[i + j] & LIMB_MASK) + m * (n[j] & LIMB_MASK) + c;
+				t[i + j] = (int) v;
+				c = v >>> 32;
+			}
+			for (int k = i + size; c != 0 && k <= 2 * size; k++) {
+				v = (t[k] & LIMB_MASK) + c;
+				t[k] = (int) v;
+				c = v >>> 32;
+			}
+		}
+
+		finish(t, size, out);
+	}
+
+	/**
+	 * Reduce the size+1 limbs of t starting at offset, which must be less than 2n, modulo n into out.
+	 */
+	private void finish(int[] t, int offset, int[] out) {
+		if (t[offset + size] != 0 || compareToModulus(t, offset) >= 0) {
+			long borrow = 0;
+			for (int j = 0; j < size; j++) {
+				long v = (t[offset + j] & LIMB_MASK) - (n[j] & LIMB_MASK) - borrow;
+				out[j] = (int) v;
+				borrow = v >>> 63;
+			}
+		} else {
+			System.arraycopy(t, offset, out, 0, size);
+		}
+	}
+
+	private int compareToModulus(int[] t, int offset) {
+		for (int j = size - 1; j >= 0; j--) {
+			if (t[offset + j] != n[j])
+				return (t[offset + j] & LIMB_MASK) < (n[j] & LIMB_MASK) ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Little-endian 32-bit limbs of the nonnegative integer x, which must fit in the specified amount of limbs.
+	 */
+	static int[] toLimbs(BigInteger x, int size) {
+		int[] limbs = new int[size];
+		toLimbs(x, limbs);
+		return limbs;
+	}
+
+	/**
+	 * Sets limbs to the little-endian 32-bit limbs of the nonnegative integer x, which must fit in them.
+	 */
+	static void toLimbs(BigInteger x, int[] limbs) {
+		Arrays.fill(limbs, 0);
+		byte[] bytes = x.toByteArray();
+		for (int i = 0; i < bytes.length; i++) {
+			int limb = i >>> 2;
+			if (limb >= limbs.length) // Only the sign byte can end up here
+				break;
+			limbs[limb] |= (bytes[bytes.length - 1 - i] & 0xff) << (8 * (i & 3));
+		}
+	}
+
+	static BigInteger fromLimbs(int[] limbs) {
+		byte[] bytes = new byte[4 * limbs.length];
+		for (int j = 0; j < limbs.length; j++) {
+			int offset = bytes.length - 4 * j;
+			bytes[offset - 1] = (byte) limbs[j];
+			bytes[offset - 2] = (byte) (limbs[j] >>> 8);
+			bytes[offset - 3] = (byte) (limbs[j] >>> 16);
+			bytes[offset - 4] = (byte) (limbs[j] >>> 24);
+		}
+		return new BigInteger(1, bytes);
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * <p>Simultaneous exponentiation: computes products of the form prod_i b_i^{e_i} mod n while sharing the squarings
+ * between all bases, instead of performing a full exponentiation per base and multiplying the results.</p>
+ *
+ * <p>For a moderate amount of bases this uses interleaved sliding windows (Straus' method): a small table of odd
+ * powers is computed per base, after which a single chain of squarings is done into which the table entries are
+ * multiplied at the appropriate positions. For a large amount of bases the tables become too expensive, and the
+ * bucket method of Pippenger is used instead, in which the bases are sorted into buckets per exponent digit.
+ * The cheapest method is selected based on the amount of bases and the length of the exponents.</p>
+ *
+ * <p>For bases that are fixed across many exponentiations (such as the generators of a public key), a
+ * {@link FixedBaseTable} is cheaper still.</p>
+ */
+public class MultiExponentiation {
+	private static final int MAX_WINDOW = 7;
+
+	/**
+	 * Below this amount of bases, separate calls to {@link BigInteger#modPow(BigInteger, BigInteger)} are faster
+	 * than sharing the squarings, because the JVM usually implements the former using native instructions.
+	 */
+	private static final int MIN_SHARED_BASES = 8;
+
+	private MultiExponentiation() {}
+
+	/**
+	 * Returns prod_i bases[i]^exponents[i] mod modulus. Exponents may be negative.
+	 * @throws IllegalArgumentException if the amount of bases and exponents differ
+	 */
+	public static BigInteger multiPow(List<BigInteger> bases, List<BigInteger> exponents, BigInteger modulus) {
+		if (bases.size() != exponents.size())
+			throw new IllegalArgumentException("Amount of bases and exponents differ");
+
+		if (!modulus.testBit(0)) {
+			BigInteger result = BigInteger.ONE;
+			for (int i = 0; i < bases.size(); i++) {
+				if (exponents.get(i).signum() != 0)
+					result = result.multiply(Arithmetic.modPow(bases.get(i), exponents.get(i), modulus)).mod(modulus);
+			}
+			return result.mod(modulus);
+		}
+
+		return new ModularProduct(modulus).multiplyPowers(bases, exponents).get();
+	}
+
+	/**
+	 * Multiplies prod_i bases[i]^exponents[i] into acc, which is in Montgomery form.
+	 * @param tmp temporary buffer of the size of the modulus
+	 */
+	static void multiplyPowers(Montgomery mont, List<BigInteger> bases, List<BigInteger> exponents,
+	                           int[] acc, int[] tmp, int[] scratch) {
+		BigInteger modulus = mont.getModulus();
+
+		int count = 0;
+		int maxBits = 0;
+		for (BigInteger exponent : exponents) {
+			if (exponent.signum() != 0) {
+				count++;
+				maxBits = Math.max(maxBits, exponent.bitLength());
+			}
+		}
+		if (count < MIN_SHARED_BASES) {
+			for (int i = 0; i < bases.size(); i++) {
+				if (exponents.get(i).signum() == 0)
+					continue;
+				mont.toMontgomery(Arithmetic.modPow(bases.get(i), exponents.get(i), modulus), tmp, scratch);
+				mont.multiply(acc, tmp, acc, scratch);
+			}
+			return;
+		}
+
+		// Collect the nontrivial terms, replacing bases by their inverses where the exponent is negative
+		int[][] montBases = new int[count][];
+		int[][] exps = new int[count][];
+		int[] bits = new int[count];
+		for (int i = 0, k = 0; i < bases.size(); i++) {
+			BigInteger exponent = exponents.get(i);
+			if (exponent.signum() == 0)
+				continue;
+			BigInteger base = bases.get(i);
+			if (exponent.signum() < 0) {
+				base = base.modInverse(modulus);
+				exponent = exponent.negate();
+			}
+			montBases[k] = mont.toMontgomery(base);
+			exps[k] = Montgomery.toLimbs(exponent, (exponent.bitLength() + 31) / 32);
+			bits[k] = exponent.bitLength();
+			k++;
+		}
+
+		int window = strausWindow(maxBits);
+		int bucketWindow = pippengerWindow(count, maxBits);
+		int[] result;
+		if (pippengerCost(count, maxBits, bucketWindow) < strausCost(count, maxBits, window))
+			result = pippenger(mont, montBases, exps, maxBits, bucketWindow, scratch);
+		else
+			result = straus(mont, montBases, exps, bits, maxBits, window, scratch);
+
+		mont.multiply(acc, result, acc, scratch);
+	}
+
+	/**
+	 * Interleaved sliding window exponentiation.
+	 */
+	private static int[] straus(Montgomery mont, int[][] bases, int[][] exps, int[] bits, int maxBits,
+	                            int window, int[] scratch) {
+		int count = bases.length;
+
+		// Per base the odd powers b, b^3, ..., b^{2^window - 1}
+		int[][][] tables = new int[count][1 << (window - 1)][];
+		for (int i = 0; i < count; i++) {
+			int[] squared = new int[bases[i].length];
+			mont.square(bases[i], squared, scratch);
+			tables[i][0] = bases[i];
+			for (int j = 1; j < tables[i].length; j++) {
+				tables[i][j] = new int[squared.length];
+				mont.multiply(tables[i][j - 1], squared, tables[i][j], scratch);
+			}
+		}
+
+		// Recode the exponents into odd digits of at most window bits, from the right: digits[i][j] != 0 means
+		// that b_i^{digits[i][j]} must be multiplied in when arriving at bit position j
+		int[][] digits = new int[count][];
+		for (int i = 0; i < count; i++) {
+			digits[i] = new int[bits[i]];
+			for (int j = 0; j < bits[i]; ) {
+				if (!testBit(exps[i], j)) {
+					j++;
+					continue;
+				}
+				int width = Math.min(window, bits[i] - j);
+				int digit = 0;
+				for (int k = width - 1; k >= 0; k--)
+					digit = (digit << 1) | (testBit(exps[i], j + k) ? 1 : 0);
+				digits[i][j] = digit;
+				j += width;
+			}
+		}
+
+		int[] acc = null;
+		for (int j = maxBits - 1; j >= 0; j--) {
+			if (acc != null)
+				mont.square(acc, acc, scratch);
+			for (int i = 0; i < count; i++) {
+				if (j >= digits[i].length || digits[i][j] == 0)
+					continue;
+				int[] power = tables[i][digits[i][j] >>> 1];
+				if (acc == null)
+					acc = power.clone();
+				else
+					mont.multiply(acc, power, acc, scratch);
+			}
+		}
+
+		return acc;
+	}
+
+	/**
+	 * Bucket method: per digit position, each base is multiplied into the bucket of its digit, after which the
+	 * buckets are combined using running products.
+	 */
+	private static int[] pippenger(Montgomery mont, int[][] bases, int[][] exps, int maxBits, int window,
+	                               int[] scratch) {
+		int positions = (maxBits + window - 1) / window;
+		int[][] buckets = new int[1 << window][];
+
+		int[] acc = null;
+		for (int p = positions - 1; p >= 0; p--) {
+			if (acc != null)
+				for (int k = 0; k < window; k++)
+					mont.square(acc, acc, scratch);
+
+			for (int d = 0; d < buckets.length; d++)
+				buckets[d] = null;
+			for (int i = 0; i < bases.length; i++) {
+				int digit = digit(exps[i], p * window, window);
+				if (digit == 0)
+					continue;
+				if (buckets[digit] == null)
+					buckets[digit] = bases[i].clone();
+				else
+					mont.multiply(buckets[digit], bases[i], buckets[digit], scratch);
+			}
+
+			// prod_d buckets[d]^d
+			int[] running = null;
+			for (int d = buckets.length - 1; d > 0; d--) {
+				if (buckets[d] != null) {
+					if (running == null)
+						running = buckets[d];
+					else
+						mont.multiply(running, buckets[d], running, scratch);
+				}
+				if (running != null) {
+					if (acc == null)
+						acc = running.clone();
+					else
+						mont.multiply(acc, running, acc, scratch);
+				}
+			}
+		}
+
+		return acc == null ? mont.one() : acc;
+	}
+
+	private static int strausWindow(int bits) {
+		int window = 1;
+		while (window < MAX_WINDOW && strausCost(1, bits, window + 1) < strausCost(1, bits, window))
+			window++;
+		return window;
+	}
+
+	private static int pippengerWindow(int count, int bits) {
+		int window = 1;
+		while (window < MAX_WINDOW + 4
+				&& pippengerCost(count, bits, window + 1) < pippengerCost(count, bits, window))
+			window++;
+		return window;
+	}
+
+	/**
+	 * Estimated amount of multiplications for Straus' method, counting a squaring as 3/4 of a multiplication.
+	 */
+	private static double strausCost(int count, int bits, int window) {
+		return 0.75 * bits + count * ((1 << (window - 1)) + (double) bits / (window + 1));
+	}
+
+	/**
+	 * Estimated amount of multiplications for the bucket method, counting a squaring as 3/4 of a multiplication.
+	 */
+	private static double pippengerCost(int count, int bits, int window) {
+		return 0.75 * bits + Math.ceil((double) bits / window) * (count + 2 * (1 << window));
+	}
+
+	private static boolean testBit(int[] limbs, int bit) {
+		return (limbs[bit >>> 5] & (1 << (bit & 31))) != 0;
+	}
+
+	private static int digit(int[] limbs, int bit, int width) {
+		int value = 0;
+		for (int k = width - 1; k >= 0; k--) {
+			int b = bit + k;
+			value <<= 1;
+			if ((b >>> 5) < limbs.length && testBit(limbs, b))
+				value |= 1;
+		}
+		return value;
+	}
+}
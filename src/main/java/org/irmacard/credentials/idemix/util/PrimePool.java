@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A bounded pool of random primes in the range [2^start, 2^start + 2^length], kept filled in the background
+ * (see {@link BackgroundFiller}). Generating a prime of several hundred bits takes considerably longer than the rest of a signature,
+ * so issuers can take the prime exponents of their signatures from here instead of generating them inline.</p>
+ *
+ * <p>When the pool is empty, {@link #take()} does not wait for the background fillers but generates a prime
+ * itself, so that it is never slower than generating the prime inline; the number of times this happened is
+ * available from {@link #getDepletedCount()}. If this number grows, the capacity of the pool should be increased
+ * (see {@link #setDefaultCapacity(int)}).</p>
+ *
+ * <p>Instances are thread-safe. Filling starts lazily when the first prime is taken from the pool, and only
+ * happens while the pool is not full.</p>
+ */
+public class PrimePool {
+	/** Number of odd candidates that is sieved at once. */
+	private static final int SIEVE_SIZE = 1024;
+
+	/** The odd primes below this bound are used to sieve the candidates. */
+	private static final int SIEVE_BOUND = 2048;
+
+	private static final int CERTAINTY = 100;
+
+	private static final int[] SMALL_PRIMES = smallPrimes(SIEVE_BOUND);
+
+	private static final ConcurrentMap<String, PrimePool> pools = new ConcurrentHashMap<>();
+
+	private static volatile int defaultCapacity = 16;
+	private static volatile int defaultThreads = 1;
+
+	private final int start;
+	private final int length;
+	private final BlockingQueue<BigInteger> queue;
+	private final BackgroundFiller filler;
+
+	private final AtomicLong taken = new AtomicLong();
+	private final AtomicLong depleted = new AtomicLong();
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	/**
+	 * Creates a new pool of primes in the range [2^start_in_bits, 2^start_in_bits + 2^length_in_bits].
+	 * @param capacity maximum amount of primes that is kept in store
+	 * @param threads maximum amount of primes that is generated concurrently in the background
+	 */
+	public PrimePool(int start_in_bits, int length_in_bits, int capacity, int threads) {
+		if (capacity < 1 || threads < 1)
+			throw new IllegalArgumentException("Capacity and amount of threads must be positive");
+
+		this.start = start_in_bits;
+		this.length = length_in_bits;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.filler = new BackgroundFiller(new BackgroundFiller.Target() {
+			@Override public boolean needsMore() {
+				return queue.remainingCapacity() > 0;
+			}
+			@Override public void fillOne() {
+				queue.offer(generate(start, length, Randomness.get()));
+			}
+		}, threads);
+	}
+
+	/**
+	 * Returns the pool shared by all callers for primes in the range
+	 * [2^start_in_bits, 2^start_in_bits + 2^length_in_bits], creating it with the default capacity and amount of
+	 * threads if it does not yet exist.
+	 */
+	public static PrimePool get(int start_in_bits, int length_in_bits) {
+		String key = start_in_bits + ":" + length_in_bits;
+		PrimePool pool = pools.get(key);
+		if (pool == null) {
+			pool = new PrimePool(start_in_bits, length_in_bits, defaultCapacity, defaultThreads);
+			PrimePool existing = pools.putIfAbsent(key, pool);
+			if (existing != null)
+				pool = existing;
+		}
+		return pool;
+	}
+
+	/**
+	 * Sets the capacity of the shared pools that are created after this call
+	 * (see {@link #get(int, int)}). The default is 16.
+	 */
+	public static void setDefaultCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive");
+		defaultCapacity = capacity;
+	}
+
+	/**
+	 * Sets the amount of primes generated concurrently in the background by the shared pools that are created after this call
+	 * (see {@link #get(int, int)}). The default is 1.
+	 */
+	public static void setDefaultThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Amount of threads must be positive");
+		defaultThreads = threads;
+	}
+
+	/**
+	 * Takes a prime from the pool, or generates one if the pool is empty.
+	 */
+	public BigInteger take() {
+		taken.incrementAndGet();
+
+		BigInteger prime = queue.poll();
+		if (started.compareAndSet(false, true))
+			filler.start();
+		else
+			filler.wakeUp();
+
+		if (prime == null) {
+			depleted.incrementAndGet();
+			prime = generate(start, length, Randomness.get());
+		}
+		return prime;
+	}
+
+	/**
+	 * Stops filling the pool in the background. Primes that are still in the pool can still be taken, after which
+	 * {@link #take()} generates them inline.
+	 */
+	public void shutdown() {
+		started.set(true);
+		filler.stop();
+	}
+
+	/** The amount of primes currently in the pool. */
+	public int size() {
+		return queue.size();
+	}
+
+	public int getCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	/** The amount of primes taken from this pool so far. */
+	public long getTakenCount() {
+		return taken.get();
+	}
+
+	/** The amount of times that a prime was taken from this pool while it was empty. */
+	public long getDepletedCount() {
+		return depleted.get();
+	}
+
+	/**
+	 * Generates a random prime in the range [2^start_in_bits, 2^start_in_bits + 2^length_in_bits]: the first
+	 * prime following a random point in this range. Candidates are sieved by the small primes in batches, so that
+	 * the expensive primality test only needs to be done on the candidates that survive the sieve.
+	 */
+	public static BigInteger generate(int start_in_bits, int length_in_bits, SecureRandom rnd) {
+		BigInteger start = Crypto.TWO.pow(start_in_bits);
+		BigInteger end = start.add(Crypto.TWO.pow(length_in_bits));
+
+		while (true) {
+			BigInteger offset = start.add(new BigInteger(length_in_bits, rnd)).setBit(0);
+
+			// sieve[i] is set if offset + 2i has a small prime divisor
+			boolean[] sieve = new boolean[SIEVE_SIZE];
+			for (int p : SMALL_PRIMES) {
+				int r = offset.mod(BigInteger.valueOf(p)).intValue();
+				// Smallest i such that offset + 2i = 0 mod p, i.e. i = -r * 2^-1 mod p, where 2^-1 = (p+1)/2
+				int i = (int) ((long) (p - r) * ((p + 1) / 2) % p);
+				for (; i < SIEVE_SIZE; i += p)
+					sieve[i] = true;
+			}
+
+			for (int i = 0; i < SIEVE_SIZE; ++i) {
+				if (sieve[i])
+					continue;
+				BigInteger candidate = offset.add(BigInteger.valueOf(2L * i));
+				if (candidate.compareTo(end) >= 0)
+					break;
+				if (candidate.isProbablePrime(CERTAINTY))
+					return candidate;
+			}
+		}
+	}
+
+	private static int[] smallPrimes(int bound) {
+		boolean[] composite = new boolean[bound];
+		List<Integer> primes = new ArrayList<>();
+		for (int i = 3; i < bound; i += 2) {
+			if (composite[i])
+				continue;
+			primes.add(i);
+			for (int j = i * i; j < bound; j += 2 * i)
+				composite[j] = true;
+		}
+
+		int[] result = new int[primes.size()];
+		for (int i = 0; i < result.length; ++i)
+			result[i] = primes.get(i);
+		return result;
+	}
+}
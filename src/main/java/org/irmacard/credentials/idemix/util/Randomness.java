@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.idemix.util;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.EntropySourceProvider;
+import org.bouncycastle.crypto.prng.SP800SecureRandom;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+
+import java.math.BigInteger;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The source of all randomness used by the Idemix code. Each thread gets its own deterministic random bit
+ * generator (the SHA-256 Hash_DRBG of NIST SP 800-90A), which is seeded from a single shared seed source and
+ * reseeded from it after every {@link #RESEED_INTERVAL} bytes of output. Output is generated in blocks of
+ * {@link #BUFFER_SIZE} bytes, from which the small requests of e.g. {@link BigInteger#BigInteger(int, java.util.Random)}
+ * are served. This avoids instantiating and seeding a new {@link SecureRandom} for each random number, and
+ * contention on the system entropy source when many threads need randomness at the same time.</p>
+ *
+ * <p>For reproducible benchmarks and tests, the generators can be seeded deterministically from a fixed seed
+ * using {@link #setSeed(long)}; this can only be done explicitly from code. Each thread then gets the
+ * same stream of random numbers on each run, provided that threads request their generator in the same order.
+ * Needless to say, this must never be used in production.</p>
+ */
+public class Randomness {
+	/** Amount of bytes that is generated at once. */
+	public static final int BUFFER_SIZE = 1024;
+
+	/** Amount of bytes after which the generator of a thread is reseeded. */
+	public static final long RESEED_INTERVAL = 1 << 20;
+
+	private static final int SECURITY_STRENGTH = 256;
+
+	private static final Provider PROVIDER = new RandomnessProvider();
+
+	private static volatile SeedSource source = new SeedSource(null);
+
+	private static final ThreadLocal<Generator> generators = new ThreadLocal<>();
+
+	private Randomness() {}
+
+	/**
+	 * Returns the random generator of the current thread. It should not be handed to other threads.
+	 */
+	public static SecureRandom get() {
+		SeedSource current = source;
+		Generator generator = generators.get();
+		if (generator == null || generator.source != current) {
+			generator = new Generator(current);
+			generators.set(generator);
+		}
+		return generator;
+	}
+
+	/**
+	 * Seed all generators created from now on deterministically from the specified seed, discarding the
+	 * current generators. For benchmarks and tests only.
+	 */
+	public static void setSeed(long seed) {
+		source = new SeedSource(BigInteger.valueOf(seed).toByteArray());
+	}
+
+	/**
+	 * Seed all generators created from now on from the system seed source again, discarding the current
+	 * generators.
+	 */
+	public static void clearSeed() {
+		source = new SeedSource(null);
+	}
+
+	public static boolean isDeterministic() {
+		return source.seed != null;
+	}
+
+	/**
+	 * The provider reported by the generators (see {@link SecureRandom#getProvider()}).
+	 */
+	private static class RandomnessProvider extends Provider {
+		private static final long serialVersionUID = 1L;
+
+		RandomnessProvider() {
+			super("IRMA", 1.0, "Per-thread buffered SHA-256 Hash_DRBG of the IRMA Idemix implementation");
+		}
+	}
+
+	/**
+	 * Provides the entropy for the generators: either from a {@link SecureRandom} shared by all generators, or,
+	 * if a fixed seed is set, from SHA-256(seed || generator index || counter).
+	 */
+	private static class SeedSource implements EntropySourceProvider {
+		private static final SecureRandom system = new SecureRandom();
+
+		private final byte[] seed;
+		private final AtomicLong instances = new AtomicLong();
+
+		SeedSource(byte[] seed) {
+			this.seed = seed;
+		}
+
+		@Override
+		public EntropySource get(final int bitsRequired) {
+			final long instance = instances.getAndIncrement();
+
+			return new EntropySource() {
+				private long counter = 0;
+
+				@Override
+				public boolean isPredictionResistant() {
+					return false;
+				}
+
+				@Override
+				public byte[] getEntropy() {
+					byte[] entropy = new byte[(bitsRequired + 7) / 8];
+					if (seed == null) {
+						system.nextBytes(entropy);
+						return entropy;
+					}
+
+					SHA256Digest digest = new SHA256Digest();
+					byte[] block = new byte[digest.getDigestSize()];
+					for (int offset = 0; offset < entropy.length; offset += block.length) {
+						digest.update(seed, 0, seed.length);
+						update(digest, instance);
+						update(digest, counter++);
+						digest.doFinal(block, 0);
+						System.arraycopy(block, 0, entropy, offset, Math.min(block.length, entropy.length - offset));
+					}
+					return entropy;
+				}
+
+				@Override
+				public int entropySize() {
+					return bitsRequired;
+				}
+			};
+		}
+
+		private static void update(SHA256Digest digest, long value) {
+			for (int i = 56; i >= 0; i -= 8)
+				digest.update((byte) (value >>> i));
+		}
+	}
+
+	/**
+	 * The generator of a single thread. All work is done by its {@link GeneratorSpi}.
+	 */
+	private static class Generator extends SecureRandom {
+		private static final long serialVersionUID = 1L;
+
+		private final SeedSource source;
+
+		Generator(SeedSource source) {
+			super(new GeneratorSpi(source), PROVIDER);
+			this.source = source;
+		}
+
+		@Override
+		public String getAlgorithm() {
+			return GeneratorSpi.ALGORITHM;
+		}
+	}
+
+	/**
+	 * Serves requests from a buffer of DRBG output.
+	 */
+	private static class GeneratorSpi extends SecureRandomSpi {
+		private static final long serialVersionUID = 1L;
+
+		static final String ALGORITHM = "IRMA-SHA256-Hash-DRBG";
+
+		private final SP800SecureRandom drbg;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int position = BUFFER_SIZE;
+		private long generated = 0;
+
+		GeneratorSpi(SeedSource source) {
+			SP800SecureRandomBuilder builder = new SP800SecureRandomBuilder(source)
+					.setSecurityStrength(SECURITY_STRENGTH)
+					.setEntropyBitsRequired(SECURITY_STRENGTH);
+			// The nonce is taken from the seed source as well, so that it is deterministic when a fixed seed is set
+			byte[] nonce = source.get(SECURITY_STRENGTH / 2).getEntropy();
+			this.drbg = builder.buildHash(new SHA256Digest(), nonce, false);
+		}
+
+		@Override
+		protected synchronized void engineNextBytes(byte[] bytes) {
+			int offset = 0;
+			while (offset < bytes.length) {
+				if (position == BUFFER_SIZE)
+					refill();
+				int count = Math.min(bytes.length - offset, BUFFER_SIZE - position);
+				System.arraycopy(buffer, position, bytes, offset, count);
+				// Don't keep output around once it is handed out
+				for (int i = position; i < position + count; i++)
+					buffer[i] = 0;
+				position += count;
+				offset += count;
+			}
+		}
+
+		private void refill() {
+			if (generated >= RESEED_INTERVAL) {
+				drbg.reseed(null);
+				generated = 0;
+			}
+			drbg.nextBytes(buffer);
+			generated += BUFFER_SIZE;
+			position = 0;
+		}
+
+		@Override
+		protected void engineSetSeed(byte[] seed) {
+			// Seeding is managed by the Randomness class
+		}
+
+		@Override
+		protected byte[] engineGenerateSeed(int numBytes) {
+			byte[] seed = new byte[numBytes];
+			engineNextBytes(seed);
+			return seed;
+		}
+	}
+}
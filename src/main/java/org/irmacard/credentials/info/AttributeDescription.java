@@ -30,10 +30,11 @@
 
 package org.irmacard.credentials.info;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
-import org.w3c.dom.Element;
-
 public class AttributeDescription implements Serializable{
 	private static final long serialVersionUID = 4609118645897084209L;
 	private String name;
@@ -41,15 +42,25 @@ public class AttributeDescription implements Serializable{
 	private TranslatedString hrName;
 	private TranslatedString description;
 
-	AttributeDescription(Element e) throws InfoException {
-		name = e.getAttribute("id");
-		String optionalString = e.getAttribute("optional");
-		if (!optionalString.equals("true") && !optionalString.equals("false") && !optionalString.equals("")) {
+	/**
+	 * Read the attribute description from the current (Attribute) element of the reader.
+	 */
+	AttributeDescription(ConfigurationReader reader) throws InfoException {
+		name = reader.getAttribute("id");
+		String optionalString = reader.getAttribute("optional");
+		if (optionalString != null && !optionalString.equals("true") && !optionalString.equals("false")
+				&& !optionalString.equals("")) {
 			throw new InfoException("Attribute 'optional' is not true or false");
 		}
-		optional = optionalString.equals("true");
-		hrName = new TranslatedString(e.getElementsByTagName("Name").item(0));
-		description = new TranslatedString(e.getElementsByTagName("Description").item(0));
+		optional = "true".equals(optionalString);
+
+		int depth = reader.getDepth();
+		for (String tag; (tag = reader.nextElement(depth)) != null; ) {
+			if (tag.equals("Name") && hrName == null)
+				hrName = reader.readTranslatedString();
+			else if (tag.equals("Description") && description == null)
+				description = reader.readTranslatedString();
+		}
 	}
 
 	public AttributeDescription(String name, TranslatedString hrName, TranslatedString description) {
@@ -81,6 +92,24 @@ public class AttributeDescription implements Serializable{
 		return description;
 	}
 
+	/**
+	 * Writes this description in the binary format read by {@link #readFrom(DataInput)}.
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(name);
+		out.writeBoolean(optional);
+		BinaryEncoding.writeTranslatedString(out, hrName);
+		BinaryEncoding.writeTranslatedString(out, description);
+	}
+
+	static AttributeDescription readFrom(DataInput in) throws IOException {
+		AttributeDescription attribute = new AttributeDescription(in.readUTF(), null, null);
+		attribute.optional = in.readBoolean();
+		attribute.hrName = BinaryEncoding.readTranslatedString(in);
+		attribute.description = BinaryEncoding.readTranslatedString(in);
+		return attribute;
+	}
+
 	public String toString() {
 		return name + ": " + description;
 	}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.info;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Helpers for the explicit binary encoding of descriptions (see e.g. {@link IssuerDescription#writeTo(DataOutput)}),
+ * in which absent values are preceded by a flag.
+ */
+class BinaryEncoding {
+	private BinaryEncoding() {}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	static void writeTranslatedString(DataOutput out, TranslatedString value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value == null)
+			return;
+
+		Map<String, String> translations = value.getTranslations();
+		out.writeInt(translations.size());
+		for (Map.Entry<String, String> entry : translations.entrySet()) {
+			out.writeUTF(entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+
+	static TranslatedString readTranslatedString(DataInput in) throws IOException {
+		if (!in.readBoolean())
+			return null;
+
+		int size = readCount(in);
+		Map<String, String> translations = new HashMap<>(Math.max(2, size * 2));
+		for (int i = 0; i < size; i++)
+			translations.put(in.readUTF(), readString(in));
+		return new TranslatedString(translations);
+	}
+
+	/**
+	 * Reads the size of a collection, rejecting negative sizes of corrupt input.
+	 */
+	static int readCount(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count < 0)
+			throw new IOException("Invalid count " + count);
+		return count;
+	}
+}
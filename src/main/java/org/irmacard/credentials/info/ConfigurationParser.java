@@ -42,21 +42,65 @@ import java.io.InputStream;
 import java.net.URI;
 
 abstract public class ConfigurationParser {
-	private transient DocumentBuilder db;
+	// DocumentBuilders are expensive to create, but not thread-safe
+	private static final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>() {
+		@Override protected DocumentBuilder initialValue() {
+			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+			// dbf.setValidating(true);
+			dbf.setIgnoringComments(true);
+			dbf.setIgnoringElementContentWhitespace(true);
+			dbf.setNamespaceAware(true);
+
+			try {
+				return dbf.newDocumentBuilder();
+			} catch (ParserConfigurationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
 	private transient int schemaVersion = 1;
 
-	public ConfigurationParser() {
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		// dbf.setValidating(true);
-		dbf.setIgnoringComments(true);
-		dbf.setIgnoringElementContentWhitespace(true);
-		dbf.setNamespaceAware(true);
+	public ConfigurationParser() {}
+
+	private DocumentBuilder getDocumentBuilder() {
+		DocumentBuilder db = documentBuilder.get();
+		db.reset();
+		return db;
+	}
 
+	/**
+	 * Start reading the specified file using a {@link ConfigurationReader}, which the caller must close.
+	 * Cheaper than {@link #parse(URI)}, as no DOM tree is built.
+	 */
+	protected ConfigurationReader read(URI file) throws InfoException {
+		InputStream inputStream;
 		try {
-			db = dbf.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			throw new RuntimeException(e);
+			inputStream = file.toURL().openStream();
+		} catch (IOException e) {
+			throw new InfoException("Cannot read input file " + file.toString() + ".", e);
 		}
+
+		return read(inputStream);
+	}
+
+	/**
+	 * Start reading the specified stream using a {@link ConfigurationReader}, which the caller must close
+	 * (which also closes the stream).
+	 */
+	protected ConfigurationReader read(InputStream inputStream) throws InfoException {
+		ConfigurationReader reader = new ConfigurationReader(inputStream);
+		schemaVersion = reader.getSchemaVersion();
+		return reader;
+	}
+
+	/**
+	 * Returns the value unless it is null, for checking after reading a file that a required tag was present.
+	 */
+	protected static <T> T require(T value, String tag) throws InfoException {
+		if (value == null)
+			throw new InfoException("Expected tag <" + tag + "> is missing.");
+		return value;
 	}
 
 	protected Document parse(URI file) throws InfoException {
@@ -87,7 +131,7 @@ abstract public class ConfigurationParser {
 	}
 
 	private Document internalParse(InputStream inputStream) throws SAXException, IOException {
-		Document d = db.parse(inputStream);
+		Document d = getDocumentBuilder().parse(inputStream);
 		String versionAttribute = d.getDocumentElement().getAttribute("version");
 		schemaVersion = versionAttribute.length()>0 ? Integer.parseInt(versionAttribute) : 1;
 		return d;
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.info;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Reads the elements of a configuration XML file in a single forward pass, without building a DOM tree. The
+ * elements are visited in document order using {@link #nextElement(int)}; the text or the children of the current
+ * element can then be consumed using {@link #readText()} or {@link #readTranslatedString()}. Elements that are not
+ * consumed are descended into.</p>
+ *
+ * <p>Instances are not thread-safe, but cheap: the underlying parser factory is kept per thread.</p>
+ */
+public class ConfigurationReader implements Closeable {
+	private static final ThreadLocal<XMLInputFactory> factory = new ThreadLocal<XMLInputFactory>() {
+		@Override protected XMLInputFactory initialValue() {
+			XMLInputFactory f = XMLInputFactory.newInstance();
+			f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+			f.setProperty(XMLInputFactory.IS_COALESCING, true);
+			f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			return f;
+		}
+	};
+
+	private final InputStream stream;
+	private final XMLStreamReader reader;
+	private final String rootName;
+	private final int schemaVersion;
+
+	// Amount of elements that are currently open, i.e., the root element has depth 1
+	private int depth = 0;
+
+	/**
+	 * Start reading the specified stream, up to and including the start of the root element. The stream is
+	 * closed when this reader is closed.
+	 * @throws InfoException if the stream does not contain XML
+	 */
+	public ConfigurationReader(InputStream stream) throws InfoException {
+		this.stream = stream;
+		try {
+			reader = factory.get().createXMLStreamReader(stream);
+			rootName = nextElement(0);
+			if (rootName == null)
+				throw new InfoException("Configuration file contains no elements.");
+			String versionAttribute = getAttribute("version");
+			schemaVersion = versionAttribute != null && versionAttribute.length() > 0
+					? Integer.parseInt(versionAttribute) : 1;
+		} catch (XMLStreamException|NumberFormatException e) {
+			close();
+			throw new InfoException("Parsing configuration file failed.", e);
+		} catch (InfoException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public String getRootName() {
+		return rootName;
+	}
+
+	/**
+	 * The value of the version attribute of the root element, or 1 if it is absent.
+	 */
+	public int getSchemaVersion() {
+		return schemaVersion;
+	}
+
+	/**
+	 * The amount of elements that are currently open, i.e., the depth of the current element (the root element
+	 * has depth 1).
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Advance to the next element that is nested within the root element.
+	 * @return the local name of the element, or null at the end of the document
+	 */
+	public String nextElement() throws InfoException {
+		return nextElement(1);
+	}
+
+	/**
+	 * Advance to the next element that is nested within the currently open element at the specified depth.
+	 * @return the local name of the element, or null if the element at that depth is closed first
+	 */
+	public String nextElement(int depth) throws InfoException {
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					this.depth++;
+					return reader.getLocalName();
+				}
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					this.depth--;
+					if (this.depth < depth)
+						return null;
+				}
+			}
+			return null;
+		} catch (XMLStreamException e) {
+			throw new InfoException("Parsing configuration file failed.", e);
+		}
+	}
+
+	/**
+	 * The value of the specified attribute of the current element, or null if it is absent.
+	 */
+	public String getAttribute(String name) {
+		return reader.getAttributeValue(null, name);
+	}
+
+	/**
+	 * Consume the current element, returning all text contained in it (including that of nested elements),
+	 * with leading and trailing whitespace removed.
+	 */
+	public String readText() throws InfoException {
+		StringBuilder text = new StringBuilder();
+		int start = depth;
+		try {
+			while (depth >= start) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						break;
+					case XMLStreamConstants.END_DOCUMENT:
+						throw new InfoException("Unexpected end of configuration file.");
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new InfoException("Parsing configuration file failed.", e);
+		}
+		return text.toString().trim();
+	}
+
+	/**
+	 * Consume the current element, whose children contain the translations of a string, keyed by language.
+	 */
+	public TranslatedString readTranslatedString() throws InfoException {
+		Map<String, String> translations = new HashMap<>(2);
+		int start = depth;
+		for (String lang; (lang = nextElement(start)) != null; )
+			translations.put(lang, readText());
+		return new TranslatedString(translations);
+	}
+
+	/**
+	 * Closes the parser and the underlying stream.
+	 */
+	@Override
+	public void close() {
+		try {
+			if (reader != null)
+				reader.close();
+		} catch (XMLStreamException e) {
+			// Nothing we can do about it
+		}
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// Idem
+		}
+	}
+}
@@ -31,6 +31,9 @@
 package org.irmacard.credentials.info;
 
 import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URI;
@@ -38,10 +41,6 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
 @SuppressWarnings("unused")
 public class CredentialDescription extends ConfigurationParser implements Serializable {
 	private static final long serialVersionUID = -8465573145896355885L;
@@ -56,6 +55,10 @@ public class CredentialDescription extends ConfigurationParser implements Serial
 	private ArrayList<AttributeDescription> attributes;
 	private transient IssuerDescription issuerDescription;
 	
+	private CredentialDescription() {
+		super();
+	}
+
 	/**
 	 * Create new credential description from file
 	 * @param file Input XML file.
@@ -63,8 +66,7 @@ public class CredentialDescription extends ConfigurationParser implements Serial
 	 */
 	public CredentialDescription(URI file) throws InfoException {
 		super();
-		Document d = parse(file);
-		init(d);
+		init(read(file));
 	}
 	
 	/**
@@ -74,41 +76,92 @@ public class CredentialDescription extends ConfigurationParser implements Serial
 	 */
 	public CredentialDescription(InputStream stream) throws InfoException {
 		super();
-		Document d = parse(stream);
-		init(d);
+		init(read(stream));
 	}
 
 	public CredentialDescription(String xml) throws InfoException {
 		this(new ByteArrayInputStream(xml.getBytes()));
 	}
 
-	private void init(Document d) throws InfoException {
-		if (getSchemaVersion() < 4)
-			throw new InfoException("Cannot parse credential definition of version " + getSchemaVersion());
+	private void init(ConfigurationReader reader) throws InfoException {
+		String schemeManager = null;
+		String s = null;
 
-		description = getFirstTranslatedTag(d, "Description");
-		name = getFirstTranslatedTag(d, "Name");
-		shortName = getFirstTranslatedTag(d, "ShortName");
-		issuerID = getFirstTagText(d, "IssuerID");
-		credentialID = getFirstTagText(d, "CredentialID");
-		String schemeManager = getFirstTagText(d, "SchemeManager");
+		try {
+			if (getSchemaVersion() < 4)
+				throw new InfoException("Cannot parse credential definition of version " + getSchemaVersion());
 
-		identifier = new CredentialIdentifier(new IssuerIdentifier(schemeManager, issuerID), credentialID);
-
-		NodeList attrList = ((Element) d.getElementsByTagName("Attributes")
-				.item(0)).getElementsByTagName("Attribute");
-		attributes = new ArrayList<>();
-		for (int i = 0; i < attrList.getLength(); i++) {
-			attributes.add(new AttributeDescription((Element) attrList.item(i)));
+			for (String tag; (tag = reader.nextElement()) != null; ) {
+				switch (tag) {
+					case "Description": description = reader.readTranslatedString(); break;
+					case "Name": name = reader.readTranslatedString(); break;
+					case "ShortName": shortName = reader.readTranslatedString(); break;
+					case "IssuerID": issuerID = reader.readText(); break;
+					case "CredentialID": credentialID = reader.readText(); break;
+					case "SchemeManager": schemeManager = reader.readText(); break;
+					case "ShouldBeSingleton": s = reader.readText(); break;
+					case "Attributes":
+						attributes = new ArrayList<>();
+						int depth = reader.getDepth();
+						for (String child; (child = reader.nextElement(depth)) != null; )
+							if (child.equals("Attribute"))
+								attributes.add(new AttributeDescription(reader));
+						break;
+				}
+			}
+		} finally {
+			reader.close();
 		}
 
-		String s = getNullableTagText(d, "ShouldBeSingleton");
+		require(description, "Description");
+		require(name, "Name");
+		require(shortName, "ShortName");
+		require(attributes, "Attributes");
+		identifier = new CredentialIdentifier(new IssuerIdentifier(require(schemeManager, "SchemeManager"),
+				require(issuerID, "IssuerID")), require(credentialID, "CredentialID"));
+
 		if (s == null) s = "false";
 		if (!s.equals("true") && !s.equals("false"))
 			throw new InfoException("ShouldBeSingleton has illegal value, should be true or false");
 		shouldBeSingleton = s.equals("true");
 	}
 
+	/**
+	 * Writes this description in a compact binary format, which can be read back using
+	 * {@link #readFrom(DataInput)}.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(identifier.toString());
+		out.writeUTF(issuerID);
+		out.writeUTF(credentialID);
+		out.writeBoolean(shouldBeSingleton);
+		BinaryEncoding.writeTranslatedString(out, description);
+		BinaryEncoding.writeTranslatedString(out, name);
+		BinaryEncoding.writeTranslatedString(out, shortName);
+		out.writeInt(attributes.size());
+		for (AttributeDescription attribute : attributes)
+			attribute.writeTo(out);
+	}
+
+	/**
+	 * Reads a description written by {@link #writeTo(DataOutput)}.
+	 */
+	public static CredentialDescription readFrom(DataInput in) throws IOException {
+		CredentialDescription credential = new CredentialDescription();
+		credential.identifier = new CredentialIdentifier(in.readUTF());
+		credential.issuerID = in.readUTF();
+		credential.credentialID = in.readUTF();
+		credential.shouldBeSingleton = in.readBoolean();
+		credential.description = BinaryEncoding.readTranslatedString(in);
+		credential.name = BinaryEncoding.readTranslatedString(in);
+		credential.shortName = BinaryEncoding.readTranslatedString(in);
+		int count = BinaryEncoding.readCount(in);
+		credential.attributes = new ArrayList<>(Math.min(count, 64));
+		for (int i = 0; i < count; i++)
+			credential.attributes.add(AttributeDescription.readFrom(in));
+		return credential;
+	}
+
 	/**
 	 * FIXME: Nicer string representation would be nice
 	 */
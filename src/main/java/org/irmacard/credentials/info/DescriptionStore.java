@@ -36,18 +36,48 @@ import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLSocketFactory;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Stores the descriptions of all scheme managers, issuers and credential types.</p>
+ *
+ * <p>The descriptions are kept in an immutable {@link Snapshot}, so that reading never takes a lock, and never
+ * observes a half-updated store. Modifications are collected in a {@link Batch}, which is applied to a copy of
+ * the current snapshot and published atomically as the next version of the store when it is committed. The
+ * individual modification methods of this class each apply a batch consisting of just that modification.</p>
+ */
 @SuppressWarnings("unused")
 public class DescriptionStore {
+	private static Logger logger = LoggerFactory.getLogger(DescriptionStore.class);
+
 	public static final int httpTimeout = 5000; // milliseconds
 
 	private static DescriptionStoreDeserializer deserializer;
@@ -56,13 +86,251 @@ public class DescriptionStore {
 	private static HttpRequestFactory requestFactory;
 	private static SSLSocketFactory socketFactory;
 
-	private static DescriptionStore ds;
+	/** How long (in milliseconds) files that scheme managers don't have are remembered as missing, by default. */
+	public static final long DEFAULT_MISSING_TTL = 60000;
+
+	private static volatile DownloadCache downloadCache = new DownloadCache(null, DEFAULT_MISSING_TTL);
+
+	/** Amount of threads of the default executor on which asynchronous downloads are done. */
+	public static final int DEFAULT_DOWNLOAD_THREADS = 8;
+
+	private static ExecutorService downloadExecutor;
+	private static ScheduledExecutorService deadlineScheduler;
+
+	private static volatile DescriptionStore ds;
 
-	private HashMap<String,SchemeManager> schemeManagers = new HashMap<>();
-	private HashMap<CredentialIdentifier,CredentialDescription> credentialDescriptions = new HashMap<>();
-	private HashMap<IssuerIdentifier,IssuerDescription> issuerDescriptions = new HashMap<>();
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Contents(null).toSnapshot(0));
 
-	private transient HashMap<String, CredentialIdentifier> reverseHashes = new HashMap<>();
+	// Serializes the commits of batches, so that none get lost; readers never take it
+	private final Object commitLock = new Object();
+
+	// Descriptions that are only parsed when first needed, if the store was initialized lazily
+	private LazyIndex<IssuerIdentifier, IssuerDescription> lazyIssuers;
+	private LazyIndex<CredentialIdentifier, CredentialDescription> lazyCredentials;
+	private Map<String, CredentialIdentifier> lazyReverseHashes;
+
+	// Downloads in progress, so that concurrent requests for the same description are done only once
+	private final SingleFlight<CredentialIdentifier, CredentialDescription> credentialDownloads = new SingleFlight<>();
+	private final SingleFlight<IssuerIdentifier, IssuerDescription> issuerDownloads = new SingleFlight<>();
+	// Saves of downloaded issuers that wait for their logo, run by whoever needs them first
+	private final ConcurrentHashMap<IssuerIdentifier, FutureTask<Void>> issuerSaves = new ConcurrentHashMap<>();
+
+	/**
+	 * An immutable version of the contents of the description store.
+	 */
+	public static final class Snapshot {
+		private final long version;
+		private final Map<String,SchemeManager> schemeManagers;
+		private final Map<CredentialIdentifier,CredentialDescription> credentialDescriptions;
+		private final Map<IssuerIdentifier,IssuerDescription> issuerDescriptions;
+		private final Map<String, CredentialIdentifier> reverseHashes;
+
+		private Snapshot(long version, Contents contents) {
+			this.version = version;
+			this.schemeManagers = Collections.unmodifiableMap(contents.schemeManagers);
+			this.credentialDescriptions = Collections.unmodifiableMap(contents.credentialDescriptions);
+			this.issuerDescriptions = Collections.unmodifiableMap(contents.issuerDescriptions);
+			this.reverseHashes = Collections.unmodifiableMap(contents.reverseHashes);
+		}
+
+		/**
+		 * The number of batches committed to the store before this snapshot.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		public Map<String, SchemeManager> getSchemeManagers() {
+			return schemeManagers;
+		}
+
+		public Map<CredentialIdentifier, CredentialDescription> getCredentialDescriptions() {
+			return credentialDescriptions;
+		}
+
+		public Map<IssuerIdentifier, IssuerDescription> getIssuerDescriptions() {
+			return issuerDescriptions;
+		}
+	}
+
+	/**
+	 * Mutable copy of the contents of a snapshot, to which the modifications of a batch are applied.
+	 * Only ever used by one thread.
+	 */
+	private static class Contents {
+		private final HashMap<String,SchemeManager> schemeManagers;
+		private final HashMap<CredentialIdentifier,CredentialDescription> credentialDescriptions;
+		private final HashMap<IssuerIdentifier,IssuerDescription> issuerDescriptions;
+		private final HashMap<String, CredentialIdentifier> reverseHashes;
+		private MessageDigest md;
+
+		Contents(Snapshot snapshot) {
+			if (snapshot == null) {
+				schemeManagers = new HashMap<>();
+				credentialDescriptions = new HashMap<>();
+				issuerDescriptions = new HashMap<>();
+				reverseHashes = new HashMap<>();
+			} else {
+				schemeManagers = new HashMap<>(snapshot.schemeManagers);
+				credentialDescriptions = new HashMap<>(snapshot.credentialDescriptions);
+				issuerDescriptions = new HashMap<>(snapshot.issuerDescriptions);
+				reverseHashes = new HashMap<>(snapshot.reverseHashes);
+			}
+		}
+
+		Snapshot toSnapshot(long version) {
+			return new Snapshot(version, this);
+		}
+
+		String reverseHash(CredentialIdentifier cred) {
+			if (md == null)
+				md = newDigest();
+			return DescriptionStore.reverseHash(md, cred);
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String reverseHash(MessageDigest md, CredentialIdentifier cred) {
+		md.update(cred.toString().getBytes());
+		return new String(Base64.encodeBase64(Arrays.copyOfRange(md.digest(), 0, 16)));
+	}
+
+	private interface Modification {
+		void apply(Contents contents) throws InfoException;
+	}
+
+	/**
+	 * <p>A set of modifications to the store, that becomes visible to readers all at once when
+	 * {@link #commit()} is called. Until then, the modifications are only recorded, so a batch is cheap to
+	 * build.</p>
+	 *
+	 * <p>A batch should be used by one thread only.</p>
+	 */
+	public class Batch {
+		private final List<Modification> modifications = new ArrayList<>();
+		private final List<IssuerIdentifier> removedIssuers = new ArrayList<>();
+		private final List<String> removedManagers = new ArrayList<>();
+
+		private Batch() {}
+
+		public Batch addSchemeManager(final SchemeManager manager) {
+			modifications.add(new Modification() {
+				@Override public void apply(Contents contents) throws InfoException {
+					if (contents.schemeManagers.containsKey(manager.getName()))
+						throw new InfoException("Scheme manager with id " + manager.getName() + " already exists");
+					contents.schemeManagers.put(manager.getName(), manager);
+				}
+			});
+			return this;
+		}
+
+		public Batch addIssuerDescription(final IssuerDescription id) {
+			modifications.add(new Modification() {
+				@Override public void apply(Contents contents) throws InfoException {
+					if (contents.issuerDescriptions.containsKey(id.getIdentifier())
+							|| (lazyIssuers != null && lazyIssuers.contains(id.getIdentifier()))) {
+						throw new InfoException("Cannot add issuer " + id.getName()
+								+ ". An issuer with the id " + id.getID()
+								+ " already exists.");
+					}
+					contents.issuerDescriptions.put(id.getIdentifier(), id);
+				}
+			});
+			return this;
+		}
+
+		public Batch updateIssuerDescription(final IssuerDescription id) {
+			modifications.add(new Modification() {
+				@Override public void apply(Contents contents) {
+					contents.issuerDescriptions.put(id.getIdentifier(), id);
+				}
+			});
+			return this;
+		}
+
+		public Batch addCredentialDescription(final CredentialDescription cd) {
+			modifications.add(new Modification() {
+				@Override public void apply(Contents contents) throws InfoException {
+					CredentialIdentifier identifier = cd.getIdentifier();
+					if (contents.credentialDescriptions.containsKey(identifier)
+							|| (lazyCredentials != null && lazyCredentials.contains(identifier)))
+						throw new InfoException("Cannot add credential " + identifier + ", already exists");
+					contents.credentialDescriptions.put(identifier, cd);
+					contents.reverseHashes.put(contents.reverseHash(identifier), identifier);
+				}
+			});
+			return this;
+		}
+
+		/**
+		 * Removes the specified scheme manager, as well as any IssuerDescriptions and CredentialDescriptions
+		 * associated to the specified manager. When the batch is committed, the public keys of the removed
+		 * issuers are removed from the {@link KeyStore}.
+		 */
+		public Batch removeSchemeManager(final String name) {
+			removedManagers.add(name);
+			modifications.add(new Modification() {
+				@Override public void apply(Contents contents) {
+					contents.schemeManagers.remove(name);
+
+					for (Iterator<CredentialIdentifier> it = contents.credentialDescriptions.keySet().iterator(); it.hasNext(); ) {
+						CredentialIdentifier entry = it.next();
+						if (entry.getSchemeManagerName().equals(name))
+							it.remove();
+					}
+					for (Iterator<CredentialIdentifier> it = contents.reverseHashes.values().iterator(); it.hasNext(); ) {
+						if (it.next().getSchemeManagerName().equals(name))
+							it.remove();
+					}
+
+					for (Iterator<IssuerIdentifier> it = contents.issuerDescriptions.keySet().iterator(); it.hasNext(); ) {
+						IssuerIdentifier entry = it.next();
+						if (entry.getSchemeManagerName().equals(name)) {
+							removedIssuers.add(entry);
+							it.remove();
+						}
+					}
+				}
+			});
+			return this;
+		}
+
+		/**
+		 * Applies the modifications of this batch to the current contents of the store, and publishes the result.
+		 * @return the new snapshot of the store
+		 * @throws InfoException if one of the modifications failed, in which case the store is left untouched
+		 */
+		public Snapshot commit() throws InfoException {
+			Snapshot next;
+			synchronized (commitLock) {
+				removedIssuers.clear();
+				Snapshot current = snapshot.get();
+				Contents contents = new Contents(current);
+				for (Modification modification : modifications)
+					modification.apply(contents);
+				next = contents.toSnapshot(current.getVersion() + 1);
+				snapshot.set(next);
+			}
+
+			for (String manager : removedManagers)
+				removeLazily(manager, removedIssuers);
+
+			for (IssuerIdentifier issuer : removedIssuers) {
+				try {
+					KeyStore.getInstance().removePublicKeys(issuer);
+				} catch (StoreException e) { /* Ignore, nothing to do */ }
+			}
+
+			return next;
+		}
+	}
 
 	public static void setDeserializer(DescriptionStoreDeserializer deserializer) {
 		DescriptionStore.deserializer = deserializer;
@@ -82,10 +350,99 @@ public class DescriptionStore {
 					@Override
 					public void initialize(HttpRequest httpRequest) throws IOException {
 						httpRequest.setConnectTimeout(timeout);
+						// Also bound reads, so that a download that is cancelled or past its deadline
+						// cannot keep a thread blocked for long on a slow host
+						httpRequest.setReadTimeout(timeout);
 					}
 				});
 	}
 
+	/**
+	 * Set the cache through which descriptions and keys are downloaded from scheme managers.
+	 */
+	public static void setDownloadCache(DownloadCache downloadCache) {
+		DescriptionStore.downloadCache = downloadCache;
+	}
+
+	public static DownloadCache getDownloadCache() {
+		return downloadCache;
+	}
+
+	/**
+	 * Set the executor on which asynchronous downloads are done.
+	 */
+	public static synchronized void setDownloadExecutor(ExecutorService executor) {
+		downloadExecutor = executor;
+	}
+
+	/**
+	 * The executor on which asynchronous downloads are done; if none was set, a pool of
+	 * {@link #DEFAULT_DOWNLOAD_THREADS} daemon threads.
+	 */
+	public static synchronized ExecutorService getDownloadExecutor() {
+		if (downloadExecutor == null)
+			downloadExecutor = Executors.newFixedThreadPool(DEFAULT_DOWNLOAD_THREADS, new DaemonThreadFactory());
+		return downloadExecutor;
+	}
+
+	private static synchronized ScheduledExecutorService getDeadlineScheduler() {
+		if (deadlineScheduler == null) {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory());
+			scheduler.setRemoveOnCancelPolicy(true);
+			deadlineScheduler = scheduler;
+		}
+		return deadlineScheduler;
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private static final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "irma-download-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * A download that is cancelled when its deadline passes, and that cancels its deadline when it completes.
+	 */
+	private static class DownloadTask<T> extends FutureTask<T> {
+		private volatile ScheduledFuture<?> deadline;
+
+		DownloadTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		protected void done() {
+			ScheduledFuture<?> d = deadline;
+			if (d != null)
+				d.cancel(false);
+		}
+	}
+
+	/**
+	 * Run the task on the {@link #getDownloadExecutor() download executor}.
+	 * @param timeout Amount of milliseconds after which the task is cancelled (interrupting it) if it has
+	 *                not completed by then, or 0 for no deadline. A task that is cancelled, because of its
+	 *                deadline or by the caller, throws a {@link java.util.concurrent.CancellationException}
+	 *                from {@link Future#get()}.
+	 */
+	public static <T> Future<T> submitDownload(Callable<T> task, long timeout) {
+		final DownloadTask<T> future = new DownloadTask<>(task);
+		getDownloadExecutor().execute(future);
+		if (timeout > 0 && !future.isDone()) {
+			future.deadline = getDeadlineScheduler().schedule(new Runnable() {
+				@Override public void run() {
+					future.cancel(true);
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+		return future;
+	}
+
 	public static void initialize(DescriptionStoreDeserializer deserializer,
 	                              DescriptionStoreSerializer serializer,
 	                              SSLSocketFactory socketFactory) throws InfoException {
@@ -110,32 +467,82 @@ public class DescriptionStore {
 	}
 
 	public static void initialize() throws InfoException {
-		ds = new DescriptionStore();
-		if (deserializer != null)
-			new TreeWalker(deserializer).parseConfiguration(ds);
-		ds.calculateReverseHashes();
+		// Only publish the new store once it is complete
+		DescriptionStore store = new DescriptionStore();
+		if (deserializer != null) {
+			Batch batch = store.batch();
+			new TreeWalker(deserializer).parseConfiguration(batch);
+			batch.commit();
+		}
+		ds = store;
 	}
 
-	public static boolean isInitialized() {
-		return ds != null;
+	/**
+	 * Initialize the store with the specified, already parsed, descriptions instead of from the deserializer.
+	 * The deserializer and serializer that were set are still used for anything that is loaded later on.
+	 */
+	public static void initialize(Collection<SchemeManager> managers, Collection<IssuerDescription> issuers,
+	                              Collection<CredentialDescription> credentials) throws InfoException {
+		DescriptionStore store = new DescriptionStore();
+		Batch batch = store.batch();
+		for (SchemeManager manager : managers)
+			batch.addSchemeManager(manager);
+		for (IssuerDescription issuer : issuers)
+			batch.addIssuerDescription(issuer);
+		for (CredentialDescription credential : credentials)
+			batch.addCredentialDescription(credential);
+		batch.commit();
+		ds = store;
 	}
 
-	MessageDigest md;
-	private void calculateReverseHashes() {
-		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
+	/**
+	 * Initialize the store lazily: only the scheme managers are parsed right away. Of the issuers and credential
+	 * types only the location is recorded, and their descriptions are parsed when they are first requested.
+	 * Note that {@link #getSnapshot()} contains only the descriptions that were added later on (e.g. downloaded).
+	 *
+	 * @param deserializer Deserializer for the configuration
+	 * @param capacity Maximum amount of issuer and of credential descriptions kept in memory, or 0 for no maximum
+	 */
+	public static void initializeLazily(final DescriptionStoreDeserializer deserializer, int capacity)
+			throws InfoException {
+		DescriptionStore.deserializer = deserializer;
+		DescriptionStore store = new DescriptionStore();
+
+		List<IssuerIdentifier> issuers = new ArrayList<>();
+		List<CredentialIdentifier> credentials = new ArrayList<>();
+		Batch batch = store.batch();
+		new TreeWalker(deserializer).indexConfiguration(batch, issuers, credentials);
+		batch.commit();
+
+		store.lazyIssuers = new LazyIndex<>(new LazyIndex.Loader<IssuerIdentifier, IssuerDescription>() {
+			@Override public IssuerDescription load(IssuerIdentifier issuer) throws InfoException {
+				return deserializer.loadIssuerDescription(issuer);
+			}
+		}, capacity);
+		for (IssuerIdentifier issuer : issuers)
+			store.lazyIssuers.add(issuer);
+
+		store.lazyCredentials = new LazyIndex<>(new LazyIndex.Loader<CredentialIdentifier, CredentialDescription>() {
+			@Override public CredentialDescription load(CredentialIdentifier credential) throws InfoException {
+				return deserializer.loadCredentialDescription(credential);
+			}
+		}, capacity);
+		MessageDigest md = newDigest();
+		store.lazyReverseHashes = new ConcurrentHashMap<>();
+		for (CredentialIdentifier credential : credentials) {
+			store.lazyCredentials.add(credential);
+			store.lazyReverseHashes.put(reverseHash(md, credential), credential);
 		}
 
-		for (CredentialIdentifier cred : ds.credentialDescriptions.keySet())
-			calculateReverseHash(cred);
+		ds = store;
 	}
 
-	private void calculateReverseHash(CredentialIdentifier cred) {
-		md.update(cred.toString().getBytes());
-		String key = new String(Base64.encodeBase64(Arrays.copyOfRange(md.digest(), 0, 16)));
-		reverseHashes.put(key, cred);
+	public boolean isLazy() {
+		return lazyCredentials != null;
+	}
+
+	public static boolean isInitialized() {
+		return ds != null;
 	}
 
 	/**
@@ -145,27 +552,51 @@ public class DescriptionStore {
 	 * @throws StoreException if deserializing the store failed
 	 */
 	public static DescriptionStore getInstance() throws StoreException {
-		if(ds == null) {
-			try {
-				initialize();
-			} catch (InfoException e) {
-				throw new StoreException(e);
+		DescriptionStore store = ds;
+		if (store == null) {
+			synchronized (DescriptionStore.class) {
+				if (ds == null) {
+					try {
+						initialize();
+					} catch (InfoException e) {
+						throw new StoreException(e);
+					}
+				}
+				store = ds;
 			}
 		}
 
-		return ds;
+		return store;
 	}
 
 	private DescriptionStore() {}
 
+	/**
+	 * Returns the current contents of the store. The snapshot is immutable: later modifications of the store
+	 * result in a new snapshot.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * Start a new batch of modifications to this store.
+	 */
+	public Batch batch() {
+		return new Batch();
+	}
+
 	public CredentialDescription getCredentialDescription(CredentialIdentifier identifier) {
-		return credentialDescriptions.get(identifier);
+		CredentialDescription cd = snapshot.get().credentialDescriptions.get(identifier);
+		if (cd == null && lazyCredentials != null)
+			cd = loadLazily(lazyCredentials, identifier);
+		return cd;
 	}
 
 	/** Use {@link #getCredentialDescription(CredentialIdentifier)} instead */
 	@Deprecated
 	public CredentialDescription getCredentialDescription(String identifier) {
-		return credentialDescriptions.get(new CredentialIdentifier(identifier));
+		return getCredentialDescription(new CredentialIdentifier(identifier));
 	}
 
 	public CredentialDescription getCredentialDescriptionByName(IssuerIdentifier issuer, String credID) {
@@ -177,47 +608,108 @@ public class DescriptionStore {
 	}
 
 	public void addCredentialDescription(CredentialDescription cd) throws InfoException {
-		if (credentialDescriptions.containsKey(cd.getIdentifier())) {
-			throw new InfoException("Cannot add credential " + cd.getIdentifier() + ", already exists");
-		}
-		credentialDescriptions.put(cd.getIdentifier(), cd);
+		batch().addCredentialDescription(cd).commit();
 	}
 
 	public IssuerDescription getIssuerDescription(IssuerIdentifier identifier) {
-		return issuerDescriptions.get(identifier);
+		IssuerDescription id = snapshot.get().issuerDescriptions.get(identifier);
+		if (id == null && lazyIssuers != null)
+			id = loadLazily(lazyIssuers, identifier);
+		return id;
 	}
 
 	@Deprecated
 	public IssuerDescription getIssuerDescription(String identifier) {
-		return issuerDescriptions.get(new IssuerIdentifier(identifier));
+		return getIssuerDescription(new IssuerIdentifier(identifier));
 	}
 
 	public void addIssuerDescription(IssuerDescription id) throws InfoException {
-		if (issuerDescriptions.containsKey(id.getIdentifier())) {
-			throw new InfoException("Cannot add issuer " + id.getName()
-					+ ". An issuer with the id " + id.getID()
-					+ " already exists.");
-		}
-		issuerDescriptions.put(id.getIdentifier(), id);
+		batch().addIssuerDescription(id).commit();
 	}
 
 	public void updateIssuerDescription(IssuerDescription id) {
-		if (issuerDescriptions.containsKey(id.getIdentifier())) {
-			issuerDescriptions.remove(id.getIdentifier());
+		try {
+			batch().updateIssuerDescription(id).commit();
+		} catch (InfoException e) {
+			throw new RuntimeException(e); // Updating always succeeds
 		}
-		issuerDescriptions.put(id.getIdentifier(), id);
 	}
 
+	/**
+	 * Returns the descriptions of all issuers. If the store was initialized lazily, this parses all of them,
+	 * skipping those that fail to parse (see {@link #getIssuerDescription(IssuerIdentifier)}).
+	 */
 	public Collection<IssuerDescription> getIssuerDescriptions() {
-		return issuerDescriptions.values();
+		Map<IssuerIdentifier, IssuerDescription> issuers = snapshot.get().issuerDescriptions;
+		if (lazyIssuers == null)
+			return issuers.values();
+
+		ArrayList<IssuerDescription> all = new ArrayList<>(issuers.values());
+		for (IssuerIdentifier issuer : lazyIssuers.keys()) {
+			if (issuers.containsKey(issuer))
+				continue;
+			IssuerDescription id = loadLazily(lazyIssuers, issuer);
+			if (id != null)
+				all.add(id);
+		}
+		return all;
+	}
+
+	/**
+	 * Returns the identifiers of all issuers, without parsing any descriptions.
+	 */
+	public Collection<IssuerIdentifier> getIssuerIdentifiers() {
+		Set<IssuerIdentifier> issuers = snapshot.get().issuerDescriptions.keySet();
+		if (lazyIssuers == null)
+			return issuers;
+
+		HashSet<IssuerIdentifier> all = new HashSet<>(issuers);
+		all.addAll(lazyIssuers.keys());
+		return all;
+	}
+
+	/**
+	 * Remove the lazily loaded descriptions of the specified scheme manager, if any.
+	 */
+	private void removeLazily(String manager, List<IssuerIdentifier> removedIssuers) {
+		if (lazyIssuers == null)
+			return;
+
+		for (IssuerIdentifier issuer : new ArrayList<>(lazyIssuers.keys())) {
+			if (issuer.getSchemeManagerName().equals(manager)) {
+				lazyIssuers.remove(issuer);
+				removedIssuers.add(issuer);
+			}
+		}
+		for (CredentialIdentifier credential : new ArrayList<>(lazyCredentials.keys()))
+			if (credential.getSchemeManagerName().equals(manager))
+				lazyCredentials.remove(credential);
+		for (Iterator<CredentialIdentifier> it = lazyReverseHashes.values().iterator(); it.hasNext(); )
+			if (it.next().getSchemeManagerName().equals(manager))
+				it.remove();
+	}
+
+	/**
+	 * Returns the specified item of the lazy index, loading it if necessary. If it fails to load, the error is
+	 * logged and the item is dropped from the index, so that it is treated as absent from then on, and null is
+	 * returned.
+	 */
+	private static <K, V> V loadLazily(LazyIndex<K, V> index, K key) {
+		try {
+			return index.get(key);
+		} catch (InfoException e) {
+			logger.error("Failed to parse " + key + ", dropping it", e);
+			index.remove(key);
+			return null;
+		}
 	}
 
 	public SchemeManager getSchemeManager(String name) {
-		return schemeManagers.get(name);
+		return snapshot.get().schemeManagers.get(name);
 	}
 
 	public boolean containsSchemeManager(String url) {
-		for (SchemeManager manager : schemeManagers.values())
+		for (SchemeManager manager : snapshot.get().schemeManagers.values())
 			if (manager.getUrl().equals(url))
 				return true;
 
@@ -229,10 +721,7 @@ public class DescriptionStore {
 	 * @throws InfoException if the manager already exists
 	 */
 	public void addSchemeManager(SchemeManager manager) throws InfoException {
-		if (schemeManagers.containsKey(manager.getName()))
-			throw new InfoException("Scheme manager with id " + manager.getName() + " already exists");
-
-		schemeManagers.put(manager.getName(), manager);
+		batch().addSchemeManager(manager).commit();
 	}
 
 	/**
@@ -252,24 +741,12 @@ public class DescriptionStore {
 	 * @return the remove manager if any, null otherwise
 	 */
 	public SchemeManager removeSchemeManager(String name) {
-		SchemeManager manager = schemeManagers.remove(name);
-
-		for (Iterator<CredentialIdentifier> it = credentialDescriptions.keySet().iterator(); it.hasNext(); ) {
-			CredentialIdentifier entry = it.next();
-			if (entry.getSchemeManagerName().equals(name))
-				it.remove();
-		}
-
-		for (Iterator<IssuerIdentifier> it = issuerDescriptions.keySet().iterator(); it.hasNext(); ) {
-			IssuerIdentifier entry = it.next();
-			if (entry.getSchemeManagerName().equals(name)) {
-				try {
-					KeyStore.getInstance().removePublicKeys(entry);
-				} catch (StoreException e) { /* Ignore, nothing to do */ }
-				it.remove();
-			}
+		SchemeManager manager = getSchemeManager(name);
+		try {
+			batch().removeSchemeManager(name).commit();
+		} catch (InfoException e) {
+			throw new RuntimeException(e); // Removing always succeeds
 		}
-
 		return manager;
 	}
 
@@ -277,12 +754,13 @@ public class DescriptionStore {
 	 * Get all scheme managers, sorted alphabetically by their name.
 	 */
 	public ArrayList<SchemeManager> getSchemeManagers() {
+		Map<String, SchemeManager> schemeManagers = snapshot.get().schemeManagers;
 		ArrayList<String> names = new ArrayList<>(schemeManagers.keySet());
 		Collections.sort(names);
 
 		ArrayList<SchemeManager> managers = new ArrayList<>(names.size());
 		for (String name : names)
-			managers.add(getSchemeManager(name));
+			managers.add(schemeManagers.get(name));
 
 		return managers;
 	}
@@ -295,53 +773,182 @@ public class DescriptionStore {
 	 * @throws IOException if the file could not be downloaded
 	 * @throws InfoException if the scheme manager is unknown
 	 */
-	public CredentialDescription downloadCredentialDescription(CredentialIdentifier identifier)
+	public CredentialDescription downloadCredentialDescription(final CredentialIdentifier identifier)
 	throws IOException, InfoException {
-		IssuerIdentifier issuer = identifier.getIssuerIdentifier();
+		return credentialDownloads.run(identifier, new SingleFlight.Call<CredentialDescription>() {
+			@Override public CredentialDescription call() throws IOException, InfoException {
+				IssuerIdentifier issuer = identifier.getIssuerIdentifier();
+
+				// The logo of the issuer, if any, keeps downloading while we fetch the credential type
+				if (getIssuerDescription(issuer) == null)
+					fetchIssuerDescription(issuer);
+
+				SchemeManager manager = getSchemeManager(issuer.getSchemeManagerName());
+				if (manager == null)
+					throw new InfoException("Unknown scheme manager");
+				String url = manager.getUrl() + "/" + issuer.getIssuerName() +
+						"/Issues/" + identifier.getCredentialName() + "/description.xml";
+
+				String cdXml = inputStreamToString(new ByteArrayInputStream(download(url)));
+				CredentialDescription cd = new CredentialDescription(cdXml);
+				addCredentialDescription(cd);
+
+				// Never save a credential type without its issuer
+				saveIssuerDescription(issuer, true);
+				if (serializer != null)
+					serializer.saveCredentialDescription(cd, cdXml);
+
+				return cd;
+			}
+		});
+	}
 
-		if (getIssuerDescription(issuer) == null)
-			downloadIssuerDescription(issuer);
+	/**
+	 * Download an issuer description from the scheme manager. If a serializer is set, the logo of the issuer is
+	 * downloaded concurrently with the description, after which the issuer is saved. Failing to download the
+	 * logo is not fatal: the issuer is then saved with an empty logo.
+	 * @param issuer The issuer
+	 * @return The issuer deescription
+	 * @throws IOException if the files could not be downloaed
+	 * @throws InfoException if the scheme manager was unknown
+	 */
+	public IssuerDescription downloadIssuerDescription(final IssuerIdentifier issuer)
+	throws IOException, InfoException {
+		IssuerDescription id = fetchIssuerDescription(issuer);
+		// Waiting for the logo happens outside of the single flight, so that concurrent callers are not held up
+		saveIssuerDescription(issuer, false);
+		return id;
+	}
 
-		SchemeManager manager = schemeManagers.get(issuer.getSchemeManagerName());
-		if (manager == null)
-			throw new InfoException("Unknown scheme manager");
-		String url = manager.getUrl() + "/" + issuer.getIssuerName() +
-				"/Issues/" + identifier.getCredentialName() + "/description.xml";
+	/**
+	 * Download the issuer description and add it to the store. If a serializer is set, this starts the download
+	 * of the logo and records the save of the issuer, which {@link #saveIssuerDescription(IssuerIdentifier, boolean)}
+	 * then does.
+	 */
+	private IssuerDescription fetchIssuerDescription(final IssuerIdentifier issuer) throws IOException, InfoException {
+		return issuerDownloads.run(issuer, new SingleFlight.Call<IssuerDescription>() {
+			@Override public IssuerDescription call() throws IOException, InfoException {
+				SchemeManager manager = getSchemeManager(issuer.getSchemeManagerName());
+				if (manager == null)
+					throw new InfoException("Unknown scheme manager");
+				String url = manager.getUrl() + "/" + issuer.getIssuerName();
+
+				final DescriptionStoreSerializer serializer = DescriptionStore.serializer;
+				final Future<byte[]> logo = serializer == null ? null : downloadAsync(url + "/logo.png", 0);
+
+				final String issuerXml;
+				final IssuerDescription id;
+				try {
+					issuerXml = inputStreamToString(new ByteArrayInputStream(download(url + "/description.xml")));
+					id = new IssuerDescription(issuerXml);
+					addIssuerDescription(id);
+				} catch (IOException|InfoException|RuntimeException e) {
+					if (logo != null)
+						logo.cancel(true);
+					throw e;
+				}
+
+				if (serializer != null) {
+					issuerSaves.put(issuer, new FutureTask<>(new Callable<Void>() {
+						@Override public Void call() {
+							byte[] logoBytes = awaitLogo(id, logo);
+							try {
+								serializer.saveIssuerDescription(id, issuerXml, new ByteArrayInputStream(logoBytes));
+							} catch (RuntimeException e) {
+								logger.error("Could not save issuer " + id.getIdentifier(), e);
+							}
+							return null;
+						}
+					}));
+				}
+				return id;
+			}
+		});
+	}
 
-		String cdXml = inputStreamToString(doHttpRequest(url));
-		CredentialDescription cd = new CredentialDescription(cdXml);
-		addCredentialDescription(cd);
+	/**
+	 * Do the pending save of the specified downloaded issuer, if any and if no other thread is already doing it.
+	 * @param wait Whether to wait until a save that another thread is doing has finished
+	 */
+	private void saveIssuerDescription(IssuerIdentifier issuer, boolean wait) throws IOException {
+		FutureTask<Void> save = issuerSaves.get(issuer);
+		if (save == null)
+			return;
 
-		calculateReverseHash(identifier);
+		save.run(); // Does nothing if another thread is running it or did so
+		if (wait && !save.isDone()) {
+			try {
+				save.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while saving issuer " + issuer);
+			} catch (ExecutionException e) {
+				// Can't happen, the save logs its own failures
+			}
+		}
+		if (save.isDone())
+			issuerSaves.remove(issuer, save);
+	}
 
-		if (serializer != null)
-			serializer.saveCredentialDescription(cd, cdXml);
+	/**
+	 * Returns the downloaded logo, or an empty one if the download failed.
+	 */
+	private static byte[] awaitLogo(IssuerDescription id, Future<byte[]> logo) {
+		// If the download executor did not get to it yet, download it here; waiting for it from a thread of the
+		// download executor could otherwise deadlock
+		if (logo instanceof RunnableFuture)
+			((RunnableFuture<?>) logo).run();
 
-		return cd;
+		try {
+			return logo.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while downloading the logo of issuer " + id.getIdentifier()
+					+ ", saving it without");
+		} catch (ExecutionException|CancellationException e) {
+			logger.warn("Could not download the logo of issuer " + id.getIdentifier() + ", saving it without", e);
+		}
+		return new byte[0];
 	}
 
 	/**
-	 * Download an issuer description from the scheme manager
-	 * @param issuer The issuer
-	 * @return The issuer deescription
-	 * @throws IOException if the files could not be downloaed
-	 * @throws InfoException if the scheme manager was unknown
+	 * Download a credential description on the {@link #getDownloadExecutor() download executor}.
+	 * @param timeout Deadline in milliseconds, or 0 for none (see {@link #submitDownload(Callable, long)})
+	 * @see #downloadCredentialDescription(CredentialIdentifier)
 	 */
-	public IssuerDescription downloadIssuerDescription(IssuerIdentifier issuer) throws IOException, InfoException {
-		SchemeManager manager = schemeManagers.get(issuer.getSchemeManagerName());
-		if (manager == null)
-			throw new InfoException("Unknown scheme manager");
-		String url = manager.getUrl() + "/" + issuer.getIssuerName();
-
-		String issuerXml = inputStreamToString(doHttpRequest(url + "/description.xml"));
-		IssuerDescription id = new IssuerDescription(issuerXml);
-		addIssuerDescription(id);
+	public Future<CredentialDescription> downloadCredentialDescriptionAsync(final CredentialIdentifier identifier,
+	                                                                        long timeout) {
+		return submitDownload(new Callable<CredentialDescription>() {
+			@Override public CredentialDescription call() throws IOException, InfoException {
+				return downloadCredentialDescription(identifier);
+			}
+		}, timeout);
+	}
 
-		InputStream logo = doHttpRequest(url + "/logo.png");
-		if (serializer != null)
-			serializer.saveIssuerDescription(id, issuerXml, logo);
+	/**
+	 * Download an issuer description on the {@link #getDownloadExecutor() download executor}.
+	 * @param timeout Deadline in milliseconds, or 0 for none (see {@link #submitDownload(Callable, long)})
+	 * @see #downloadIssuerDescription(IssuerIdentifier)
+	 */
+	public Future<IssuerDescription> downloadIssuerDescriptionAsync(final IssuerIdentifier issuer, long timeout) {
+		return submitDownload(new Callable<IssuerDescription>() {
+			@Override public IssuerDescription call() throws IOException, InfoException {
+				return downloadIssuerDescription(issuer);
+			}
+		}, timeout);
+	}
 
-		return id;
+	/**
+	 * Download a scheme manager on the {@link #getDownloadExecutor() download executor}.
+	 * @param timeout Deadline in milliseconds, or 0 for none (see {@link #submitDownload(Callable, long)})
+	 * @see #downloadSchemeManager(String, boolean)
+	 */
+	public Future<SchemeManager> downloadSchemeManagerAsync(final String url, final boolean allowHttp, long timeout) {
+		return submitDownload(new Callable<SchemeManager>() {
+			@Override public SchemeManager call() throws IOException, InfoException {
+				return downloadSchemeManager(url, allowHttp);
+			}
+		}, timeout);
 	}
 
 	public SchemeManager downloadSchemeManager(String url, boolean allowHttp) throws IOException, InfoException {
@@ -371,6 +978,30 @@ public class DescriptionStore {
 				.getContent();
 	}
 
+	/**
+	 * Download a file from a scheme manager through the {@link DownloadCache}: files that were recently found
+	 * to be missing are not requested again, and if the cache has a directory, files that were downloaded
+	 * before are revalidated using a conditional request.
+	 * @throws java.io.FileNotFoundException if the scheme manager does not have the file
+	 * @throws IOException if the file could not be downloaded
+	 */
+	public static byte[] download(String url) throws IOException {
+		return downloadCache.get(requestFactory, url);
+	}
+
+	/**
+	 * Download a file on the {@link #getDownloadExecutor() download executor}.
+	 * @param timeout Deadline in milliseconds, or 0 for none (see {@link #submitDownload(Callable, long)})
+	 * @see #download(String)
+	 */
+	public static Future<byte[]> downloadAsync(final String url, long timeout) {
+		return submitDownload(new Callable<byte[]>() {
+			@Override public byte[] call() throws IOException {
+				return download(url);
+			}
+		}, timeout);
+	}
+
 	public static String inputStreamToString(InputStream is) throws IOException {
 		BufferedReader br = new BufferedReader(new InputStreamReader(is));
 		StringBuilder sb = new StringBuilder();
@@ -384,6 +1015,10 @@ public class DescriptionStore {
 	}
 
 	public CredentialIdentifier hashToCredentialIdentifier(byte[] hash) {
-		return reverseHashes.get(new String(Base64.encodeBase64(hash)));
+		String key = new String(Base64.encodeBase64(hash));
+		CredentialIdentifier identifier = snapshot.get().reverseHashes.get(key);
+		if (identifier == null && lazyReverseHashes != null)
+			identifier = lazyReverseHashes.get(key);
+		return identifier;
 	}
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.info;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Downloads files from scheme managers, remembering for a while which ones do not exist, so that requests
+ * for unknown identifiers do not each result in a request to the scheme manager.</p>
+ *
+ * <p>If a directory is set, downloaded files are also stored there, by the hash of their contents, along with
+ * the ETag and Last-Modified headers of the response. Downloading the same url again then results in a
+ * conditional request, which the server can answer with a 304 Not Modified instead of the file.</p>
+ */
+public class DownloadCache {
+	/** Maximum amount of missing urls that are remembered. */
+	private static final int MAX_MISSING = 10000;
+
+	private static final String OBJECTS = "objects";
+	private static final String URLS = "urls";
+
+	private final File directory;
+	private final long missingTtl;
+
+	// Urls that were not found, mapped to the time (in ms) until which we believe they don't exist
+	private final ConcurrentHashMap<String, Long> missing = new ConcurrentHashMap<>();
+
+	/**
+	 * @param directory Directory in which downloaded files are stored, or null to not store them
+	 * @param missingTtl Amount of milliseconds for which urls that were not found are remembered as such
+	 */
+	public DownloadCache(File directory, long missingTtl) {
+		this.directory = directory;
+		this.missingTtl = missingTtl;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Download the specified url.
+	 * @throws FileNotFoundException if the server responded with 404 or 410, now or less than the TTL ago
+	 * @throws IOException if the file could not be downloaded
+	 */
+	public byte[] get(HttpRequestFactory requestFactory, String url) throws IOException {
+		Long until = missing.get(url);
+		if (until != null) {
+			if (until > System.currentTimeMillis())
+				throw new FileNotFoundException(url + " not found (cached)");
+			missing.remove(url, until);
+		}
+
+		Properties cached = loadMetadata(url);
+		byte[] cachedContents = cached == null ? null : loadObject(cached.getProperty("hash"));
+
+		HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(url));
+		request.setThrowExceptionOnExecuteError(false);
+		if (cachedContents != null) {
+			if (cached.getProperty("etag") != null)
+				request.getHeaders().setIfNoneMatch(cached.getProperty("etag"));
+			if (cached.getProperty("lastModified") != null)
+				request.getHeaders().setIfModifiedSince(cached.getProperty("lastModified"));
+		}
+
+		HttpResponse response = request.execute();
+		try {
+			int status = response.getStatusCode();
+			if (status == 304 && cachedContents != null)
+				return cachedContents;
+			if (status == 404 || status == 410) {
+				addMissing(url);
+				throw new FileNotFoundException(url + " not found");
+			}
+			if (!response.isSuccessStatusCode())
+				throw new HttpResponseException(response);
+
+			byte[] contents;
+			try (InputStream in = response.getContent()) {
+				contents = in == null ? new byte[0] : IOUtils.toByteArray(in);
+			}
+			store(url, contents, response.getHeaders().getETag(), response.getHeaders().getLastModified());
+			return contents;
+		} finally {
+			// Closes the content, so that the connection can be reused
+			response.ignore();
+		}
+	}
+
+	/**
+	 * Forget which urls were not found.
+	 */
+	public void clearMissing() {
+		missing.clear();
+	}
+
+	private void addMissing(String url) {
+		if (missingTtl <= 0)
+			return;
+
+		if (missing.size() >= MAX_MISSING) {
+			long now = System.currentTimeMillis();
+			for (Iterator<Long> it = missing.values().iterator(); it.hasNext(); )
+				if (it.next() <= now)
+					it.remove();
+			if (missing.size() >= MAX_MISSING)
+				missing.clear();
+		}
+		missing.put(url, System.currentTimeMillis() + missingTtl);
+	}
+
+	private Properties loadMetadata(String url) {
+		if (directory == null)
+			return null;
+
+		Path file = directory.toPath().resolve(URLS).resolve(DigestUtils.sha256Hex(url));
+		if (!Files.exists(file))
+			return null;
+
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (IOException e) {
+			return null; // The cache is only an optimization
+		}
+		return properties.getProperty("hash") != null ? properties : null;
+	}
+
+	private byte[] loadObject(String hash) {
+		try {
+			byte[] contents = Files.readAllBytes(directory.toPath().resolve(OBJECTS).resolve(hash));
+			return DigestUtils.sha256Hex(contents).equals(hash) ? contents : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void store(String url, byte[] contents, String etag, String lastModified) {
+		if (directory == null)
+			return;
+
+		try {
+			String hash = DigestUtils.sha256Hex(contents);
+			Path object = directory.toPath().resolve(OBJECTS).resolve(hash);
+			if (!Files.exists(object))
+				writeAtomically(object, contents);
+
+			Properties properties = new Properties();
+			properties.setProperty("hash", hash);
+			if (etag != null)
+				properties.setProperty("etag", etag);
+			if (lastModified != null)
+				properties.setProperty("lastModified", lastModified);
+
+			ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+			properties.store(metadata, url);
+			writeAtomically(directory.toPath().resolve(URLS).resolve(DigestUtils.sha256Hex(url)),
+					metadata.toByteArray());
+		} catch (IOException e) {
+			// The cache is only an optimization; the download itself succeeded
+		}
+	}
+
+	private static void writeAtomically(Path file, byte[] contents) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), ".", ".tmp");
+		try {
+			Files.write(temp, contents);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
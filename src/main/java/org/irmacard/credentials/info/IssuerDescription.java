@@ -31,12 +31,13 @@
 package org.irmacard.credentials.info;
 
 import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URI;
 
-import org.w3c.dom.Document;
-
 public class IssuerDescription extends ConfigurationParser implements Serializable {
 	private static final long serialVersionUID = 1640325096236188409L;
 	private TranslatedString name;
@@ -99,35 +100,83 @@ public class IssuerDescription extends ConfigurationParser implements Serializab
 		return baseURL;
 	}
 
+	private IssuerDescription() {
+		super();
+	}
+
 	public IssuerDescription(URI file) throws InfoException {
 		super();
-		Document d = parse(file);
-		init(d);
+		init(read(file));
 	}
 
 	public IssuerDescription(InputStream stream) throws InfoException {
 		super();
-		Document d = parse(stream);
-		init(d);
+		init(read(stream));
 	}
 
 	public IssuerDescription(String xml) throws InfoException {
 		this(new ByteArrayInputStream(xml.getBytes()));
 	}
 
-	private void init(Document d) throws InfoException {
-		if (getSchemaVersion() < 4)
-			throw new InfoException("Cannot parse issuer definition of version " + getSchemaVersion());
+	private void init(ConfigurationReader reader) throws InfoException {
+		String schemeManager = null;
+
+		try {
+			if (getSchemaVersion() < 4)
+				throw new InfoException("Cannot parse issuer definition of version " + getSchemaVersion());
+
+			for (String tag; (tag = reader.nextElement()) != null; ) {
+				switch (tag) {
+					case "ID": id = reader.readText(); break;
+					case "Name": name = reader.readTranslatedString(); break;
+					case "ShortName": shortName = reader.readTranslatedString(); break;
+					case "ContactAddress": contactAddress = reader.readText(); break;
+					case "ContactEMail": contactEMail = reader.readText(); break;
+					case "baseURL": baseURL = reader.readText(); break;
+					case "SchemeManager": schemeManager = reader.readText(); break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		require(id, "ID");
+		require(name, "Name");
+		require(shortName, "ShortName");
+		require(contactAddress, "ContactAddress");
+		require(contactEMail, "ContactEMail");
+		require(baseURL, "baseURL");
+		identifier = new IssuerIdentifier(require(schemeManager, "SchemeManager"), id);
+	}
 
-		id = getFirstTagText(d, "ID");
-		name = getFirstTranslatedTag(d, "Name");
-		shortName = getFirstTranslatedTag(d, "ShortName");
+	/**
+	 * Writes this description in a compact binary format, which can be read back using
+	 * {@link #readFrom(DataInput)}. Unlike Java serialization, reading this format only ever constructs the
+	 * fields of the description.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(identifier.toString());
+		out.writeUTF(id);
+		BinaryEncoding.writeTranslatedString(out, name);
+		BinaryEncoding.writeTranslatedString(out, shortName);
+		BinaryEncoding.writeString(out, contactAddress);
+		BinaryEncoding.writeString(out, contactEMail);
+		BinaryEncoding.writeString(out, baseURL);
+	}
 
-		contactAddress = getFirstTagText(d, "ContactAddress");
-		contactEMail = getFirstTagText(d, "ContactEMail");
-		baseURL = getFirstTagText(d, "baseURL");
-		String schemeManager = getFirstTagText(d, "SchemeManager");
-		identifier = new IssuerIdentifier(schemeManager, id);
+	/**
+	 * Reads a description written by {@link #writeTo(DataOutput)}.
+	 */
+	public static IssuerDescription readFrom(DataInput in) throws IOException {
+		IssuerDescription issuer = new IssuerDescription();
+		issuer.identifier = new IssuerIdentifier(in.readUTF());
+		issuer.id = in.readUTF();
+		issuer.name = BinaryEncoding.readTranslatedString(in);
+		issuer.shortName = BinaryEncoding.readTranslatedString(in);
+		issuer.contactAddress = BinaryEncoding.readString(in);
+		issuer.contactEMail = BinaryEncoding.readString(in);
+		issuer.baseURL = BinaryEncoding.readString(in);
+		return issuer;
 	}
 
 	public String toString() {
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.irmacard.credentials.info;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>An index of items (e.g. descriptions or keys) that are known to exist, but that are only loaded when they
+ * are first requested. Each item is loaded at most once, also when several threads request it at the same
+ * time.</p>
+ *
+ * <p>If a capacity is set, at most that many items are kept in memory: when more are loaded, the least recently
+ * used ones are dropped, to be loaded again if they are requested later on.</p>
+ *
+ * @param <K> Type of the identifiers of the items
+ * @param <V> Type of the items
+ */
+public class LazyIndex<K, V> {
+	/**
+	 * Loads the item with the specified identifier.
+	 */
+	public interface Loader<K, V> {
+		V load(K key) throws InfoException;
+	}
+
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	private final Loader<K, V> loader;
+	private final int capacity;
+
+	// Loaded entries, in order of last use; only used if there is a capacity
+	private final LinkedHashMap<K, Entry<V>> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+	private static class Entry<V> {
+		private volatile V value;
+	}
+
+	/**
+	 * @param loader Loads the items
+	 * @param capacity Maximum amount of items kept in memory, or 0 for no maximum
+	 */
+	public LazyIndex(Loader<K, V> loader, int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Capacity must not be negative");
+		this.loader = loader;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Record that the item with the specified identifier exists, without loading it.
+	 */
+	public void add(K key) {
+		entries.put(key, new Entry<V>());
+	}
+
+	/**
+	 * Remove the specified item from the index.
+	 */
+	public void remove(K key) {
+		entries.remove(key);
+		if (capacity > 0) {
+			synchronized (recent) {
+				recent.remove(key);
+			}
+		}
+	}
+
+	public boolean contains(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * The identifiers of all items in the index, whether or not they are loaded.
+	 */
+	public Collection<K> keys() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * Returns the specified item, loading it if this has not yet been done.
+	 * @return The item, or null if it is not in the index
+	 * @throws InfoException if loading the item failed
+	 */
+	public V get(K key) throws InfoException {
+		Entry<V> entry = entries.get(key);
+		if (entry == null)
+			return null;
+
+		V value = entry.value;
+		if (value == null) {
+			synchronized (entry) {
+				value = entry.value;
+				if (value == null) {
+					value = loader.load(key);
+					entry.value = value;
+				}
+			}
+		}
+
+		if (capacity > 0)
+			touch(key, entry);
+		return value;
+	}
+
+	private void touch(K key, Entry<V> entry) {
+		synchronized (recent) {
+			recent.put(key, entry);
+			if (recent.size() <= capacity)
+				return;
+
+			Iterator<Entry<V>> it = recent.values().iterator();
+			Entry<V> eldest = it.next();
+			it.remove();
+			synchronized (eldest) {
+				eldest.value = null;
+			}
+		}
+	}
+}
@@ -2,10 +2,13 @@ package org.irmacard.credentials.info;
 
 import org.w3c.dom.Node;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
-public class TranslatedString {
+public class TranslatedString implements Serializable {
+	private static final long serialVersionUID = -5249184688773773739L;
+
 	private Map<String, String> translations = new HashMap<>(2);
 
 	public TranslatedString(Map<String, String> translations) {
@@ -23,6 +26,10 @@ public class TranslatedString {
 		return translations.get(lang);
 	}
 
+	Map<String, String> getTranslations() {
+		return translations;
+	}
+
 	@Override
 	public String toString() {
 		return "TranslatedString{" +
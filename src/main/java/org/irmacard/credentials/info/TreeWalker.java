@@ -30,55 +30,246 @@
 
 package org.irmacard.credentials.info;
 
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
+/**
+ * Parses a configuration folder into a {@link DescriptionStore}. The scheme managers, and the issuers within
+ * each scheme manager, are parsed in parallel on a {@link ForkJoinPool}; the results are added to the store
+ * in alphabetical order, so that the outcome does not depend on the order in which they finish.
+ */
 public class TreeWalker {
+	private static ForkJoinPool defaultPool;
+
 	FileReader fileReader;
 	DescriptionStoreDeserializer deserializer;
+	private final ForkJoinPool pool;
 
 	public TreeWalker(DescriptionStoreDeserializer deserializer) {
+		this(deserializer, getDefaultPool());
+	}
+
+	public TreeWalker(DescriptionStoreDeserializer deserializer, ForkJoinPool pool) {
 		this.deserializer = deserializer;
 		this.fileReader = deserializer.getFileReader();
+		this.pool = pool;
+	}
+
+	/**
+	 * The pool on which configurations are parsed if no other pool is specified, with as many threads as there
+	 * are processors.
+	 */
+	public static synchronized ForkJoinPool getDefaultPool() {
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool();
+		return defaultPool;
 	}
 
 	public void parseConfiguration(DescriptionStore store) throws InfoException {
-		String[] files = fileReader.list("");
+		DescriptionStore.Batch batch = store.batch();
+		parseConfiguration(batch);
+		batch.commit();
+	}
 
-		for (String path : files) {
+	/**
+	 * Add the contents of the configuration to the batch.
+	 */
+	public void parseConfiguration(DescriptionStore.Batch batch) throws InfoException {
+		final List<String> managers = new ArrayList<>();
+		for (String path : sortedList("")) {
 			if (path.startsWith(".") || fileReader.isEmpty(path))
 				continue;
-			parseSchemeManager(store, path);
+			managers.add(path);
+		}
+
+		List<ParsedSchemeManager> parsed = invoke(new RecursiveTask<List<ParsedSchemeManager>>() {
+			@Override protected List<ParsedSchemeManager> compute() {
+				List<SchemeManagerTask> tasks = new ArrayList<>(managers.size());
+				for (String manager : managers)
+					tasks.add(new SchemeManagerTask(manager));
+				return joinAll(tasks);
+			}
+		});
+
+		for (ParsedSchemeManager manager : parsed)
+			manager.addTo(batch);
+	}
+
+	/**
+	 * Add the scheme managers of the configuration to the batch, and collect the identifiers of the issuers and
+	 * credential types in it without parsing their descriptions.
+	 */
+	public void indexConfiguration(DescriptionStore.Batch batch, Collection<IssuerIdentifier> issuers,
+	                               Collection<CredentialIdentifier> credentials) throws InfoException {
+		for (String manager : sortedList("")) {
+			if (manager.startsWith(".") || fileReader.isEmpty(manager))
+				continue;
+			batch.addSchemeManager(deserializer.loadSchemeManager(manager));
+
+			for (String issuerPath : sortedList(manager)) {
+				if (issuerPath.startsWith(".") || fileReader.isEmpty(manager + "/" + issuerPath))
+					continue;
+				IssuerIdentifier issuer = new IssuerIdentifier(manager, issuerPath);
+				if (!deserializer.containsIssuerDescription(issuer))
+					continue;
+				issuers.add(issuer);
+
+				String issues = issuer.getPath(false) + "/Issues";
+				for (String credTypePath : sortedList(issues)) {
+					if (credTypePath.startsWith(".") || fileReader.isEmpty(issues + "/" + credTypePath))
+						continue;
+					CredentialIdentifier identifier = new CredentialIdentifier(issuer, credTypePath);
+					if (deserializer.containsCredentialDescription(identifier))
+						credentials.add(identifier);
+				}
+			}
 		}
 	}
 
 	public void parseSchemeManager(DescriptionStore store, String manager) throws InfoException {
-		store.addSchemeManager(deserializer.loadSchemeManager(manager));
+		DescriptionStore.Batch batch = store.batch();
+		parseSchemeManager(batch, manager);
+		batch.commit();
+	}
 
-		String[] files = fileReader.list(manager);
+	/**
+	 * Add the contents of the specified scheme manager to the batch.
+	 */
+	public void parseSchemeManager(DescriptionStore.Batch batch, String manager) throws InfoException {
+		invoke(new SchemeManagerTask(manager)).addTo(batch);
+	}
 
-		for (String issuerPath : files) {
-			if (issuerPath.startsWith(".") || fileReader.isEmpty(manager + "/" + issuerPath))
-				continue;
+	private String[] sortedList(String path) {
+		String[] files = fileReader.list(path);
+		if (files == null)
+			return new String[0];
+		Arrays.sort(files);
+		return files;
+	}
 
-			IssuerIdentifier issuer = new IssuerIdentifier(manager, issuerPath);
-			if (!deserializer.containsIssuerDescription(issuer))
-				continue;
+	private <T> T invoke(ForkJoinTask<T> task) throws InfoException {
+		try {
+			return pool.invoke(task);
+		} catch (RuntimeException e) {
+			// The pool may wrap the exception of the task once more if it was thrown in another thread
+			for (Throwable cause = e; cause != null; cause = cause.getCause())
+				if (cause instanceof InfoException)
+					throw (InfoException) cause;
+			throw e;
+		}
+	}
 
-			// Since issuerPath contains description.xml, it is an issuer
-			store.addIssuerDescription(deserializer.loadIssuerDescription(issuer));
+	/**
+	 * Forks all tasks, and returns their non-null results in order.
+	 */
+	static <T> List<T> joinAll(List<? extends ForkJoinTask<T>> tasks) {
+		ForkJoinTask.invokeAll(tasks);
+		List<T> results = new ArrayList<>(tasks.size());
+		for (ForkJoinTask<T> task : tasks) {
+			T result = task.join();
+			if (result != null)
+				results.add(result);
+		}
+		return results;
+	}
 
-			// Load any credential types it might have
-			String[] credentialTypePaths = fileReader.list(issuer.getPath(false) + "/Issues");
-			if (credentialTypePaths == null)
-				continue;
+	/** Carries an {@link InfoException} out of a task. */
+	static class TaskException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
 
-			for (String credTypePath : credentialTypePaths) {
-				if (credTypePath.startsWith(".") || fileReader.isEmpty(manager + "/" + issuerPath + "/Issues/" + credTypePath))
-					continue;
-				CredentialIdentifier identifier = new CredentialIdentifier(issuer, credTypePath);
-				if (!deserializer.containsCredentialDescription(identifier))
+		TaskException(InfoException cause) {
+			super(cause);
+		}
+	}
+
+	private static class ParsedIssuer {
+		IssuerDescription issuer;
+		List<CredentialDescription> credentials = new ArrayList<>();
+	}
+
+	private static class ParsedSchemeManager {
+		SchemeManager manager;
+		List<ParsedIssuer> issuers;
+
+		void addTo(DescriptionStore.Batch batch) {
+			batch.addSchemeManager(manager);
+			for (ParsedIssuer issuer : issuers) {
+				batch.addIssuerDescription(issuer.issuer);
+				for (CredentialDescription credential : issuer.credentials)
+					batch.addCredentialDescription(credential);
+			}
+		}
+	}
+
+	private class SchemeManagerTask extends RecursiveTask<ParsedSchemeManager> {
+		private static final long serialVersionUID = 1L;
+
+		private final String manager;
+
+		SchemeManagerTask(String manager) {
+			this.manager = manager;
+		}
+
+		@Override
+		protected ParsedSchemeManager compute() {
+			List<IssuerTask> tasks = new ArrayList<>();
+			for (String issuerPath : sortedList(manager)) {
+				if (issuerPath.startsWith(".") || fileReader.isEmpty(manager + "/" + issuerPath))
 					continue;
-				store.addCredentialDescription(deserializer.loadCredentialDescription(identifier));
+				tasks.add(new IssuerTask(new IssuerIdentifier(manager, issuerPath)));
+			}
+
+			ParsedSchemeManager parsed = new ParsedSchemeManager();
+			try {
+				parsed.manager = deserializer.loadSchemeManager(manager);
+			} catch (InfoException e) {
+				throw new TaskException(e);
+			}
+			parsed.issuers = joinAll(tasks);
+			return parsed;
+		}
+	}
+
+	private class IssuerTask extends RecursiveTask<ParsedIssuer> {
+		private static final long serialVersionUID = 1L;
+
+		private final IssuerIdentifier issuer;
+
+		IssuerTask(IssuerIdentifier issuer) {
+			this.issuer = issuer;
+		}
+
+		@Override
+		protected ParsedIssuer compute() {
+			if (!deserializer.containsIssuerDescription(issuer))
+				return null;
+
+			try {
+				// Since issuerPath contains description.xml, it is an issuer
+				ParsedIssuer parsed = new ParsedIssuer();
+				parsed.issuer = deserializer.loadIssuerDescription(issuer);
+
+				// Load any credential types it might have
+				String issues = issuer.getPath(false) + "/Issues";
+				if (fileReader.list(issues) == null)
+					return parsed;
+
+				for (String credTypePath : sortedList(issues)) {
+					if (credTypePath.startsWith(".") || fileReader.isEmpty(issues + "/" + credTypePath))
+						continue;
+					CredentialIdentifier identifier = new CredentialIdentifier(issuer, credTypePath);
+					if (!deserializer.containsCredentialDescription(identifier))
+						continue;
+					parsed.credentials.add(deserializer.loadCredentialDescription(identifier));
+				}
+				return parsed;
+			} catch (InfoException e) {
+				throw new TaskException(e);
 			}
 		}
 	}
@@ -0,0 +1,108 @@
+package org.irmacard.credentials.info.updater;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Remembers the size, modification time and SHA-256 hash of the files of a scheme manager, so that files that
+ * have not been touched since the last update need not be hashed again. Stored as lines of the form
+ * "hash size mtime path" in the directory of the scheme manager.
+ */
+class LocalIndex {
+    private static class Entry {
+        final long size;
+        final long modified;
+        final String hash;
+
+        Entry(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Load the index from the specified file. A missing or malformed file results in an empty index, as the
+     * index is only a cache.
+     */
+    static LocalIndex load(Path file) {
+        LocalIndex index = new LocalIndex();
+        try {
+            String contents = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            for (String line : StringUtils.split(contents, "\n")) {
+                String[] bits = StringUtils.split(line, " ", 4);
+                if (bits.length != 4)
+                    return new LocalIndex();
+                index.entries.put(bits[3], new Entry(Long.parseLong(bits[1]), Long.parseLong(bits[2]), bits[0]));
+            }
+        } catch (IOException|NumberFormatException e) {
+            return new LocalIndex();
+        }
+        return index;
+    }
+
+    byte[] toBytes() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            sb.append(entry.hash).append(' ').append(entry.size).append(' ')
+                    .append(entry.modified).append(' ').append(e.getKey()).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the SHA-256 hash (in hex) of the specified file, which is recomputed only if its size or
+     * modification time differ from what the index remembers; or null if the file does not exist.
+     * @param name Path of the file relative to the scheme manager, under which it is kept in the index
+     */
+    String hash(String name, Path file) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            entries.remove(name);
+            return null;
+        }
+
+        Entry entry = entries.get(name);
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (entry != null && entry.size == attrs.size() && entry.modified == modified)
+            return entry.hash;
+
+        String hash;
+        try (InputStream in = Files.newInputStream(file)) {
+            hash = DigestUtils.sha256Hex(in);
+        }
+        entries.put(name, new Entry(attrs.size(), modified, hash));
+        return hash;
+    }
+
+    /**
+     * Record the hash of a file that was just written.
+     */
+    void put(String name, Path file, String hash) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        entries.put(name, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), hash));
+    }
+
+    /**
+     * Forget all files not in the specified collection.
+     */
+    void retain(Collection<String> names) {
+        entries.keySet().retainAll(names);
+    }
+}
@@ -1,14 +1,31 @@
 package org.irmacard.credentials.info.updater;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.file.Paths;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Files;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
 import java.security.Security;
@@ -28,25 +45,87 @@ import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.javanet.NetHttpTransport;
 
 public class Updater {
+    /** Name of the index file of a scheme manager, which is stored in its directory after updating it. */
+    public static final String INDEX_FILE = "index";
+
+    /**
+     * Name of the file in the directory of a scheme manager that caches the size, modification time and hash
+     * of its files, so that unchanged files are not hashed again on each update.
+     */
+    public static final String LOCAL_INDEX_FILE = ".localindex";
+
+    /** Maximum amount of files that are downloaded simultaneously. */
+    public static final int MAX_PARALLEL_DOWNLOADS = 4;
+
+    // The transport keeps connections alive between requests, so it is shared by all downloads
+    private static final HttpRequestFactory requestFactory = new NetHttpTransport().createRequestFactory();
+
+    private static ExecutorService downloadPool;
+
+    // Updates of the local tree within this process are done one at a time
+    private static final Object updateLock = new Object();
+
     static {
         Security.addProvider(new BouncyCastleProvider());
     }
 
+    private static synchronized ExecutorService getDownloadPool() {
+        if (downloadPool == null) {
+            downloadPool = Executors.newFixedThreadPool(MAX_PARALLEL_DOWNLOADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "irma-updater-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return downloadPool;
+    }
+
     public static byte[] download(String url) throws IOException {
-        HttpRequestFactory requestFactory = new NetHttpTransport().createRequestFactory();
-        HttpRequest request = requestFactory.buildGetRequest(new GenericUrl(url));
-        return IOUtils.toByteArray(request.execute().getContent());
+        HttpResponse response = requestFactory.buildGetRequest(new GenericUrl(url)).execute();
+        // Closing the content after reading it all returns the connection to the pool
+        try (InputStream in = response.getContent()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    /**
+     * Download the specified url into the specified file, while computing its SHA-256 hash.
+     * @return the hash, in hex
+     */
+    static String download(String url, Path target) throws IOException {
+        HttpResponse response = requestFactory.buildGetRequest(new GenericUrl(url)).execute();
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = response.getContent(); OutputStream out = Files.newOutputStream(target)) {
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
     }
 
+    /**
+     * Update the scheme manager at the specified url, that is stored locally in the specified directory.
+     * Only files whose hash differs from the one in the (signed) index are downloaded, in parallel. The new
+     * version of the scheme manager is assembled next to the current one, which is then replaced by it, so
+     * that the scheme manager is never seen half-updated.
+     * @return true if any file was changed
+     */
     public static boolean update(String url, String path, String pk)
                 throws IOException, VerificationFailedException,
                       IndexParsingException, NoSuchAlgorithmException,
@@ -54,8 +133,6 @@ public class Updater {
                       SignatureException, InvalidKeyException,
                       URISyntaxException {
 
-        boolean changes = false;
-
         String urlPath = new URI(url).getPath();
         String name = urlPath.substring(urlPath.lastIndexOf('/') + 1);
 
@@ -77,32 +154,256 @@ public class Updater {
         // Parse index
         Map<String,String> index = parseIndex(new String(rawIndex));
 
-        // Loop over files
-        for (String file : index.keySet()) {
-            Path filePath = Paths.get(path, name, file);
+        synchronized (updateLock) {
+            Path parent = Paths.get(path);
+            Path dir = parent.resolve(name);
+            Files.createDirectories(parent);
+            recover(parent, name);
+
+            // Find the files that don't exist or are out-of-date
+            LocalIndex localIndex = LocalIndex.load(dir.resolve(LOCAL_INDEX_FILE));
+            List<String> outdated = new ArrayList<>();
+            for (Map.Entry<String,String> entry : index.entrySet()) {
+                if (!entry.getValue().equals(localIndex.hash(entry.getKey(), dir.resolve(entry.getKey()))))
+                    outdated.add(entry.getKey());
+            }
+            localIndex.retain(index.keySet());
+
+            if (outdated.isEmpty()) {
+                // Keep the index, so that it can be used to tell which version of the scheme manager we have
+                Path indexPath = dir.resolve(INDEX_FILE);
+                Files.createDirectories(dir);
+                if (!Files.exists(indexPath) || !Arrays.equals(Files.readAllBytes(indexPath), rawIndex)) {
+                    writeAtomically(dir.resolve(INDEX_FILE + ".sig"), rawIndexSig);
+                    writeAtomically(indexPath, rawIndex);
+                }
+                writeAtomically(dir.resolve(LOCAL_INDEX_FILE), localIndex.toBytes());
+                return false;
+            }
+
+            // Assemble the new version in a hidden directory, which the TreeWalker ignores
+            Path staging = Files.createTempDirectory(parent, "." + name + ".update");
+            Throwable failure = null;
+            try {
+                if (Files.exists(dir))
+                    linkTree(dir, staging);
+                downloadAll(url, index, outdated, staging, localIndex);
+                writeAtomically(staging.resolve(INDEX_FILE + ".sig"), rawIndexSig);
+                writeAtomically(staging.resolve(INDEX_FILE), rawIndex);
+                writeAtomically(staging.resolve(LOCAL_INDEX_FILE), localIndex.toBytes());
+                swap(staging, dir);
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                try {
+                    deleteTree(staging);
+                } catch (IOException e) {
+                    // Don't let a failed cleanup hide why the update failed; recover() retries it next time
+                    if (failure == null)
+                        throw e;
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Download the specified files into the staging directory, replacing what is there, in parallel.
+     */
+    private static void downloadAll(final String url, final Map<String,String> index, List<String> files,
+                                    final Path staging, LocalIndex localIndex)
+            throws IOException, VerificationFailedException {
+        final Tasks tasks = new Tasks();
+        List<Future<Path>> futures = new ArrayList<>(files.size());
+        for (final String file : files) {
+            futures.add(getDownloadPool().submit(new Callable<Path>() {
+                @Override public Path call() throws IOException, VerificationFailedException {
+                    if (!tasks.enter())
+                        return null;
+                    try {
+                        return downloadFile();
+                    } finally {
+                        tasks.exit();
+                    }
+                }
+
+                private Path downloadFile() throws IOException, VerificationFailedException {
+                    Path target = staging.resolve(file);
+                    Files.createDirectories(target.getParent());
+                    Path temp = Files.createTempFile(staging, ".download", null);
+                    String hash = download(url + "/" + file, temp);
+                    if (!hash.equals(index.get(file))) {
+                        throw new VerificationFailedException(
+                                String.format("Hash mismatch for %s %s != %s", file, hash, index.get(file)));
+                    }
+                    // Moving instead of writing leaves the file of the current version alone, if it was linked
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                    return target;
+                }
+            }));
+        }
+
+        try {
+            for (int i = 0; i < files.size(); i++)
+                localIndex.put(files.get(i), futures.get(i).get(), index.get(files.get(i)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof VerificationFailedException)
+                throw (VerificationFailedException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            // Tasks that did not start yet won't touch the staging directory anymore; wait for those that did,
+            // so that the staging directory can be deleted afterwards
+            tasks.abort();
+            for (Future<Path> future : futures)
+                future.cancel(true);
+            tasks.awaitRunning();
+        }
+    }
+
+    /**
+     * Keeps track of the running download tasks of an update, so that after a failure the update can wait for
+     * them to stop before deleting the staging directory.
+     */
+    private static class Tasks {
+        private int running = 0;
+        private boolean aborted = false;
+
+        /** Returns false if the update was aborted, in which case the task should not do anything. */
+        synchronized boolean enter() {
+            if (aborted)
+                return false;
+            running++;
+            return true;
+        }
+
+        synchronized void exit() {
+            running--;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+        }
 
-            if (Files.exists(filePath)) {
-                byte[] contents = Files.readAllBytes(filePath);
-                if (DigestUtils.sha256Hex(contents).equals(index.get(file))) {
-                    continue; // file is up-to-date
+        synchronized void awaitRunning() {
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
-            } else {
-                if (!Files.exists(filePath.getParent())) {
-                    Files.createDirectories(filePath.getParent());
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replace the directory by the staging directory. Both renames are atomic, so the directory contains
+     * either the old or the new version; it is only briefly missing in between.
+     */
+    private static void swap(Path staging, Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            Files.move(staging, dir, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+
+        Path old = staging.resolveSibling(staging.getFileName() + ".old");
+        Files.move(dir, old, StandardCopyOption.ATOMIC_MOVE);
+        try {
+            Files.move(staging, dir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(old, dir, StandardCopyOption.ATOMIC_MOVE);
+            throw e;
+        }
+
+        try {
+            deleteTree(old);
+        } catch (IOException e) {
+            // The update succeeded; what remains is removed by recover() on the next update
+        }
+    }
+
+    /**
+     * Clean up after an update that was interrupted, restoring the previous version if it was moved aside.
+     */
+    private static void recover(Path parent, String name) throws IOException {
+        Path dir = parent.resolve(name);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(parent, "." + name + ".update*")) {
+            for (Path leftover : leftovers) {
+                if (leftover.getFileName().toString().endsWith(".old") && !Files.exists(dir))
+                    Files.move(leftover, dir, StandardCopyOption.ATOMIC_MOVE);
+                else
+                    deleteTree(leftover);
+            }
+        }
+    }
+
+    /**
+     * Recreate the tree in the target directory using hard links to the files, or copies where linking
+     * is not possible.
+     */
+    private static void linkTree(final Path source, final Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path link = target.resolve(source.relativize(file).toString());
+                try {
+                    Files.createLink(link, file);
+                } catch (IOException|UnsupportedOperationException e) {
+                    Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
                 }
+                return FileVisitResult.CONTINUE;
             }
+        });
+    }
 
-            // The file doesn't exist or is out-of-date; create it!
-            byte[] contents = download(url + "/" + file);
-            if (!DigestUtils.sha256Hex(contents).equals(index.get(file))) {
-                throw new VerificationFailedException(
-                        String.format("Hash mismatch for %s %s != %s", file,
-                        DigestUtils.sha256Hex(contents), index.get(file)));
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root))
+            return;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
             }
-            Files.write(filePath, contents);
-            changes = true;
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null)
+                    throw e;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Write the file by moving a temporary file into place, so that readers see either the old or the new
+     * contents, and so that a hard link to the old file (see {@link #linkTree(Path, Path)}) is left alone.
+     */
+    private static void writeAtomically(Path file, byte[] contents) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+        try {
+            Files.write(temp, contents);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
         }
-        return changes;
     }
 
     // Parses the index file into a map filename -> hash.
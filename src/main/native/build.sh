@@ -0,0 +1,46 @@
+#!/bin/sh
+# Builds the JNI binding of libgmp used by org.irmacard.credentials.idemix.util.GmpArithmetic.
+#
+# Usage: src/main/native/build.sh [output directory]
+#
+# Requires a C compiler, the libgmp headers and library (e.g. libgmp-dev on Debian/Ubuntu, gmp on Homebrew),
+# and JAVA_HOME pointing to a JDK. The library is written to build/native by default; put that directory on the
+# java.library.path (gradle test does this automatically) and run with -Dirma.arithmetic=gmp to use it.
+
+set -e
+
+if [ -z "$JAVA_HOME" ]; then
+	echo "JAVA_HOME is not set" >&2
+	exit 1
+fi
+
+SOURCE="$(dirname "$0")/irmagmp.c"
+OUT="${1:-build/native}"
+CC="${CC:-cc}"
+
+case "$(uname -s)" in
+	Darwin)
+		PLATFORM=darwin
+		LIBRARY=libirmagmp.dylib
+		FLAGS="-dynamiclib"
+		# Homebrew installs gmp outside the default search paths
+		if command -v brew >/dev/null 2>&1; then
+			GMP="$(brew --prefix gmp)"
+			FLAGS="$FLAGS -I$GMP/include -L$GMP/lib"
+		fi
+		;;
+	Linux)
+		PLATFORM=linux
+		LIBRARY=libirmagmp.so
+		FLAGS="-shared -fPIC"
+		;;
+	*)
+		echo "Unsupported platform $(uname -s); see the comment in $SOURCE to build manually" >&2
+		exit 1
+		;;
+esac
+
+mkdir -p "$OUT"
+$CC -O2 $FLAGS -I"$JAVA_HOME/include" -I"$JAVA_HOME/include/$PLATFORM" \
+	-o "$OUT/$LIBRARY" "$SOURCE" -lgmp
+echo "Built $OUT/$LIBRARY"
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016, the IRMA Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the IRMA project nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/*
+ * JNI binding of libgmp for org.irmacard.credentials.idemix.util.GmpArithmetic. Build it using
+ * "gradle buildGmp" or src/main/native/build.sh, which on Linux amounts to
+ *
+ *     cc -O2 -shared -fPIC -I"$JAVA_HOME/include" -I"$JAVA_HOME/include/linux" \
+ *         -o build/native/libirmagmp.so src/main/native/irmagmp.c -lgmp
+ *
+ * and put the resulting library on the java.library.path.
+ */
+
+#include <jni.h>
+#include <stdlib.h>
+#include <gmp.h>
+
+/* Sets out to the nonnegative big-endian integer in the array */
+static void import_array(JNIEnv *env, mpz_t out, jbyteArray array) {
+	jsize length = (*env)->GetArrayLength(env, array);
+	jbyte *bytes = (*env)->GetByteArrayElements(env, array, NULL);
+	mpz_import(out, length, 1, 1, 1, 0, bytes);
+	(*env)->ReleaseByteArrayElements(env, array, bytes, JNI_ABORT);
+}
+
+/* Returns the nonnegative integer as a big-endian array, or NULL if an exception is pending */
+static jbyteArray export_array(JNIEnv *env, mpz_t in) {
+	size_t length = (mpz_sizeinbase(in, 2) + 7) / 8;
+	unsigned char *bytes = malloc(length);
+	if (bytes == NULL) {
+		(*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/OutOfMemoryError"), "irmagmp");
+		return NULL;
+	}
+
+	mpz_export(bytes, &length, 1, 1, 1, 0, in); /* Sets length to 0 if in is 0 */
+	jbyteArray array = (*env)->NewByteArray(env, length);
+	if (array != NULL)
+		(*env)->SetByteArrayRegion(env, array, 0, length, (jbyte *) bytes);
+	free(bytes);
+	return array;
+}
+
+JNIEXPORT jbyteArray JNICALL Java_org_irmacard_credentials_idemix_util_GmpArithmetic_powm(
+		JNIEnv *env, jclass cls, jbyteArray base, jbyteArray exponent, jbyteArray modulus, jboolean secure) {
+	mpz_t b, e, m, r;
+	mpz_inits(b, e, m, r, NULL);
+
+	import_array(env, b, base);
+	import_array(env, e, exponent);
+	import_array(env, m, modulus);
+
+	/* The caller ensures that the exponent is positive and, in the secure case, that the modulus is odd */
+	if (secure)
+		mpz_powm_sec(r, b, e, m);
+	else
+		mpz_powm(r, b, e, m);
+
+	jbyteArray result = export_array(env, r);
+	mpz_clears(b, e, m, r, NULL);
+	return result;
+}
@@ -21,23 +21,47 @@
 package org.irmacard.credentials.idemix;
 
 import org.irmacard.credentials.CredentialsException;
+import org.irmacard.credentials.idemix.info.ConfigurationSnapshot;
 import org.irmacard.credentials.idemix.info.IdemixKeyStore;
 import org.irmacard.credentials.idemix.info.IdemixKeyStoreDeserializer;
 import org.irmacard.credentials.idemix.messages.IssueCommitmentMessage;
 import org.irmacard.credentials.idemix.messages.IssueSignatureMessage;
 import org.irmacard.credentials.idemix.proofs.*;
+import org.irmacard.credentials.idemix.util.Arithmetic;
+import org.irmacard.credentials.idemix.util.ArithmeticBackend;
 import org.irmacard.credentials.idemix.util.Crypto;
+import org.irmacard.credentials.idemix.util.FixedBaseTable;
+import org.irmacard.credentials.idemix.util.GmpArithmetic;
+import org.irmacard.credentials.idemix.util.JavaArithmetic;
+import org.irmacard.credentials.idemix.util.ModularProduct;
+import org.irmacard.credentials.idemix.util.MultiExponentiation;
+import org.irmacard.credentials.idemix.util.PrimePool;
+import org.irmacard.credentials.idemix.util.Randomness;
 import org.irmacard.credentials.info.*;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.security.SecureRandom;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class IRMACryptoTest {
 	List<BigInteger> attributes = Arrays.asList(
@@ -129,6 +153,25 @@ public class IRMACryptoTest {
 		assertTrue(Arrays.equals(enc, expected));
 	}
 
+	@Test
+	public void testASN1Hash() {
+		Random rnd = new Random(1);
+
+		// Sizes for which the lengths of the elements and of the sequence need one, two and three bytes
+		for (int count : new int[] {0, 1, 3, 40, 1000}) {
+			List<BigInteger> values = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				BigInteger value = new BigInteger(rnd.nextInt(2100), rnd);
+				values.add(rnd.nextBoolean() ? value : value.negate());
+			}
+
+			assertTrue("Streamed hash should equal hash of the encoding",
+					Crypto.asn1Hash(values).equals(Crypto.sha256Hash(Crypto.asn1Encode(values))));
+			assertTrue("Streamed signature hash should equal hash of the encoding",
+					Crypto.asn1SigHash(values).equals(Crypto.sha256Hash(Crypto.asn1SigEncode(values))));
+		}
+	}
+
 	@Test
 	public void testProofU() {
 		Random rnd = new Random();
@@ -258,6 +301,32 @@ public class IRMACryptoTest {
 		cb.constructCredential(msg);
 	}
 
+	@Test
+	public void fullIssuanceWithReservoir() throws CredentialsException {
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+
+		IssuanceReservoir reservoir = new IssuanceReservoir(pk, sk, 2);
+		assertTrue(reservoir.fill() == 2);
+
+		for (int i = 0; i < 3; i++) {
+			BigInteger context = new BigInteger(params.get_l_h(), rnd);
+			BigInteger n_1 = new BigInteger(params.get_l_statzk(), rnd);
+			BigInteger secret = new BigInteger(params.get_l_m(), rnd);
+
+			CredentialBuilder cb = new CredentialBuilder(pk, attributes, context);
+			IssueCommitmentMessage commit_msg = cb.commitToSecretAndProve(secret, n_1);
+
+			IdemixIssuer issuer = new IdemixIssuer(pk, sk, context, reservoir);
+			IssueSignatureMessage msg = issuer.issueSignature(commit_msg, attributes, n_1);
+
+			cb.constructCredential(msg);
+		}
+
+		assertTrue(reservoir.size() == 0);
+		assertTrue(reservoir.getDepletedCount() == 1);
+	}
+
 	@Test
 	public void testShowingProof() {
 		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
@@ -848,4 +917,433 @@ public class IRMACryptoTest {
 						.verify(pk, BigInteger.TEN, BigInteger.TEN)
 		);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testFixedBaseTable() {
+		Random rnd = new Random();
+		BigInteger n = pk.getModulus();
+		BigInteger S = pk.getGeneratorS();
+		FixedBaseTable table = new FixedBaseTable(S, n, 700);
+
+		for (int bits : new int[] {1, 5, 6, 7, 64, 700, 701, 1500}) {
+			BigInteger exponent = new BigInteger(bits, rnd);
+			assertTrue("Table exponentiation is incorrect", table.pow(exponent).equals(S.modPow(exponent, n)));
+			assertTrue("Table exponentiation is incorrect for negative exponents",
+					table.pow(exponent.negate()).equals(S.modPow(exponent.negate(), n)));
+		}
+
+		List<FixedBaseTable> tables = new ArrayList<>();
+		List<BigInteger> exponents = new ArrayList<>();
+		BigInteger expected = BigInteger.ONE;
+		for (int i = 0; i < pk.getGeneratorsR().size(); i++) {
+			BigInteger exponent = new BigInteger(600, rnd);
+			if (i % 2 == 1)
+				exponent = exponent.negate();
+			tables.add(pk.getFixedBaseR(i));
+			exponents.add(exponent);
+			expected = expected.multiply(pk.getGeneratorR(i).modPow(exponent, n)).mod(n);
+		}
+		assertTrue("Table multi-exponentiation is incorrect",
+				FixedBaseTable.multiPow(tables, exponents).equals(expected));
+	}
+
+	@Test
+	public void testMultiExponentiation() {
+		Random rnd = new Random();
+		BigInteger n = pk.getModulus();
+
+		// Few bases with long exponents, many bases with short exponents (which selects the bucket method),
+		// and a few bases (which uses separate exponentiations)
+		int[][] cases = {{12, 700}, {300, 64}, {3, 256}};
+		for (int[] c : cases) {
+			List<BigInteger> bases = new ArrayList<>();
+			List<BigInteger> exponents = new ArrayList<>();
+			BigInteger expected = BigInteger.ONE;
+			for (int i = 0; i < c[0]; i++) {
+				BigInteger base = new BigInteger(n.bitLength() - 1, rnd);
+				BigInteger exponent = new BigInteger(c[1], rnd);
+				if (i % 3 == 1)
+					exponent = exponent.negate();
+				if (i % 5 == 4)
+					exponent = BigInteger.ZERO;
+				bases.add(base);
+				exponents.add(exponent);
+				expected = expected.multiply(base.modPow(exponent, n)).mod(n);
+			}
+			assertTrue("Multi-exponentiation is incorrect for " + c[0] + " bases",
+					MultiExponentiation.multiPow(bases, exponents, n).equals(expected));
+		}
+	}
+
+	@Test
+	public void testModularProduct() {
+		Random rnd = new Random();
+		BigInteger n = pk.getModulus();
+		ModularProduct product = new ModularProduct(n);
+
+		for (int round = 0; round < 2; round++) {
+			BigInteger factor = new BigInteger(n.bitLength() + 10, rnd); // Not reduced
+			BigInteger base = new BigInteger(n.bitLength() - 1, rnd);
+			BigInteger exponent = new BigInteger(300, rnd).negate();
+			List<BigInteger> Rexponents = Arrays.asList(new BigInteger(200, rnd), new BigInteger(200, rnd).negate(),
+					BigInteger.ZERO, new BigInteger(2000, rnd));
+
+			BigInteger expected = factor.multiply(base.modPow(exponent, n)).mod(n);
+			for (int i = 0; i < Rexponents.size(); i++)
+				expected = expected.multiply(pk.getGeneratorR(i).modPow(Rexponents.get(i), n)).mod(n);
+
+			BigInteger actual = product.reset()
+					.multiply(factor)
+					.multiplyPow(base, exponent)
+					.multiplyFixedPowers(pk.getFixedBasesR().subList(0, Rexponents.size()), Rexponents)
+					.get();
+			assertTrue("Modular product is incorrect", actual.equals(expected));
+		}
+	}
+
+	@Test
+	public void testGmpArithmetic() throws CredentialsException {
+		if (!GmpArithmetic.isAvailable())
+			System.out.println("TEST: Skipping GMP backend test, native library not loaded: "
+					+ GmpArithmetic.getLoadError() + " (build it using gradle buildGmp)");
+		Assume.assumeTrue("GMP backend not available: " + GmpArithmetic.getLoadError(), GmpArithmetic.isAvailable());
+
+		Random rnd = new Random();
+		ArithmeticBackend java = new JavaArithmetic();
+		ArithmeticBackend gmp = new GmpArithmetic();
+		BigInteger n = pk.getModulus();
+		BigInteger even = n.add(BigInteger.ONE);
+
+		for (BigInteger modulus : new BigInteger[] {n, even, BigInteger.valueOf(7)}) {
+			for (int bits : new int[] {1, 64, 600, 2048}) {
+				BigInteger base = new BigInteger(n.bitLength() + 8, rnd).add(BigInteger.ONE); // Not reduced
+				BigInteger exponent = new BigInteger(bits, rnd).add(BigInteger.ONE);
+				BigInteger expected = java.modPow(base, exponent, modulus);
+				assertTrue("GMP exponentiation is incorrect", gmp.modPow(base, exponent, modulus).equals(expected));
+				assertTrue("GMP secure exponentiation is incorrect",
+						gmp.modPowSecure(base, exponent, modulus).equals(expected));
+			}
+		}
+		BigInteger base = new BigInteger(n.bitLength() - 1, rnd);
+		assertTrue("GMP exponentiation is incorrect for negative exponents",
+				gmp.modPow(base, BigInteger.TEN.negate(), n).equals(java.modPow(base, BigInteger.TEN.negate(), n)));
+		assertTrue("GMP exponentiation is incorrect for exponent zero",
+				gmp.modPow(base, BigInteger.ZERO, n).equals(BigInteger.ONE));
+
+		// Full issuance and disclosure using the GMP backend
+		ArithmeticBackend previous = Arithmetic.getBackend();
+		try {
+			Arithmetic.setBackend(gmp);
+			fullIssuance();
+			testShowingProof();
+		} finally {
+			Arithmetic.setBackend(previous);
+		}
+	}
+
+	@Test
+	public void testSecretKeyModPow() {
+		Random rnd = new Random();
+		BigInteger n = pk.getModulus();
+		BigInteger base = pk.getGeneratorS().modPow(new BigInteger(n.bitLength(), rnd), n);
+
+		for (int bits : new int[] {1, 128, n.bitLength(), 2 * n.bitLength()}) {
+			BigInteger exponent = new BigInteger(bits, rnd);
+			assertTrue("CRT exponentiation is incorrect", sk.modPow(base, exponent).equals(base.modPow(exponent, n)));
+			assertTrue("CRT exponentiation is incorrect for negative exponents",
+					sk.modPow(base, exponent.negate()).equals(base.modPow(exponent.negate(), n)));
+		}
+	}
+
+	@Test
+	public void testPrimePool() {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger start = Crypto.TWO.pow(params.get_l_e() - 1);
+		BigInteger end = start.add(Crypto.TWO.pow(params.get_l_e_prime() - 1));
+
+		PrimePool pool = new PrimePool(params.get_l_e() - 1, params.get_l_e_prime() - 1, 2, 1);
+		Set<BigInteger> primes = new HashSet<>();
+		for (int i = 0; i < 10; i++) {
+			BigInteger prime = pool.take();
+			assertTrue("Prime not prime", prime.isProbablePrime(80));
+			assertTrue("Prime out of range", prime.compareTo(start) >= 0 && prime.compareTo(end) <= 0);
+			primes.add(prime);
+		}
+		pool.shutdown();
+
+		assertTrue("Pool returned the same prime twice", primes.size() == 10);
+		assertTrue("Pool miscounted taken primes", pool.getTakenCount() == 10);
+		assertTrue("Pool miscounted depletions", pool.getDepletedCount() >= 1 && pool.getDepletedCount() <= 10);
+	}
+
+	@Test
+	public void testPrecomputedShowingProof() {
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+		ProofDPrecomputationPool pool = cred.enablePrecomputation(2);
+		pool.stop();
+		pool.fill();
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce = new BigInteger(params.get_l_statzk(), rnd);
+
+		ProofD proof = cred.createDisclosureProof(Arrays.asList(1, 2), context, nonce);
+		assertTrue("Proof of disclosure using precomputation should verify", proof.verify(pk, context, nonce));
+
+		ProofList proofs = new ProofListBuilder(context, nonce)
+				.addProofD(cred, Arrays.asList(1, 3))
+				.addProofD(cred, Arrays.asList(2))
+				.build();
+		assertTrue("Bound proofs using precomputation should verify", proofs.verify(context, nonce, true));
+
+		assertTrue(pool.size() == 0);
+		assertTrue(pool.getDepletedCount() == 1);
+		cred.disablePrecomputation();
+	}
+
+	@Test
+	public void testBatchVerifier() {
+		CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+
+		BatchVerifier verifier = new BatchVerifier();
+		for (int i = 0; i < 3; i++) {
+			BigInteger nonce = new BigInteger(params.get_l_statzk(), rnd);
+			ProofList proofs = new ProofListBuilder(context, nonce)
+					.addProofD(cred, Arrays.asList(1, 2))
+					.build();
+			// Verify the second one against a wrong nonce
+			verifier.add(proofs, context, i == 1 ? nonce.add(BigInteger.ONE) : nonce, false);
+		}
+
+		System.out.println("TEST: Will warn that hash doesn't match, that is expected");
+		boolean[] results = verifier.verify();
+		assertTrue("Valid proofs should verify in batch", results[0] && results[2]);
+		assertFalse("Invalid proofs should not verify in batch", results[1]);
+		assertFalse("Batch with invalid proofs should not verify", verifier.verifyAll());
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			assertTrue("Parallel batch verification should agree",
+					Arrays.equals(results, verifier.verify(executor)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelProofListVerification() throws CredentialsException {
+		CLSignature signature1 = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred1 = new IdemixCredential(pk, attributes, signature1);
+		CLSignature signature2 = CLSignature.signMessageBlock(sk, pk, attributes);
+		IdemixCredential cred2 = new IdemixCredential(pk, attributes, signature2);
+
+		Random rnd = new Random();
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = new BigInteger(params.get_l_h(), rnd);
+		BigInteger nonce1 = new BigInteger(params.get_l_statzk(), rnd);
+
+		ProofList proofs = new ProofListBuilder(context, nonce1)
+				.addProofD(cred1, Arrays.asList(1, 2))
+				.addProofD(cred2, Arrays.asList(1, 3))
+				.build();
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			assertTrue("Bound proofs should verify in parallel", proofs.verify(context, nonce1, true, executor));
+			System.out.println("TEST: Will warn that hash doesn't match, that is expected");
+			assertFalse("Proofs should not verify against another nonce",
+					proofs.verify(context, nonce1.add(BigInteger.ONE), false, executor));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testDeterministicRandomness() {
+		IdemixSystemParameters params = pk.getSystemParameters();
+		BigInteger context = Crypto.randomUnsignedInteger(params.get_l_h());
+		BigInteger nonce1 = Crypto.randomUnsignedInteger(params.get_l_statzk());
+
+		try {
+			Randomness.setSeed(42);
+			assertTrue(Randomness.isDeterministic());
+			assertTrue("Generator should report its provider", Randomness.get().getProvider() != null);
+			BigInteger first = new BigInteger(100000, Randomness.get()); // Spans several buffers
+			BigInteger second = Crypto.randomUnsignedInteger(256);
+
+			Randomness.setSeed(42);
+			assertTrue("Seeded randomness should be reproducible",
+					first.equals(new BigInteger(100000, Randomness.get()))
+					&& second.equals(Crypto.randomUnsignedInteger(256)));
+
+			Randomness.setSeed(43);
+			assertFalse("Different seeds should give different randomness",
+					first.equals(new BigInteger(100000, Randomness.get())));
+
+			CLSignature signature = CLSignature.signMessageBlock(sk, pk, attributes);
+			IdemixCredential cred = new IdemixCredential(pk, attributes, signature);
+			assertTrue("Signature should verify using seeded randomness", signature.verify(pk, attributes));
+			assertTrue("Proof should verify using seeded randomness",
+					cred.createDisclosureProof(Arrays.asList(1, 2), context, nonce1).verify(pk, context, nonce1));
+		} finally {
+			Randomness.clearSeed();
+		}
+
+		assertFalse(Randomness.isDeterministic());
+		assertFalse("Unseeded randomness should differ between generators",
+				Crypto.randomUnsignedInteger(256).equals(Crypto.randomUnsignedInteger(256)));
+	}
+
+	@Test
+	public void testKeyStoreSnapshots() throws KeyException {
+		IdemixKeyStore store = new IdemixKeyStore();
+		IssuerIdentifier issuer = new IssuerIdentifier("irma-demo.MijnOverheid");
+
+		store.setPublicKey(issuer, pk, 3);
+		store.setPublicKey(issuer, pk, 5);
+		store.setPublicKey(issuer, pk, 4);
+		store.setSecretKey(issuer, sk, 5);
+		assertTrue(store.getKeyCounter(issuer) == 5);
+		assertTrue(store.getLatestSecretKey(issuer) == sk);
+
+		IdemixKeyStore.Snapshot snapshot = store.getSnapshot();
+		store.removePublicKeys(issuer);
+		assertFalse(store.containsPublicKey(issuer, 5));
+		assertTrue("Snapshots should not be affected by later modifications",
+				snapshot.getPublicKey(issuer, 5) == pk && snapshot.getKeyCounter(issuer) == 5);
+		assertTrue(store.getVersion() == snapshot.getVersion() + 1);
+	}
+
+	@Test
+	public void testDescriptionStoreBatches() throws InfoException {
+		DescriptionStore store = DescriptionStore.getInstance();
+		IssuerDescription issuer = store.getIssuerDescription(new IssuerIdentifier("irma-demo.MijnOverheid"));
+		SchemeManager manager = store.getSchemeManager("irma-demo");
+		DescriptionStore.Snapshot snapshot = store.getSnapshot();
+
+		try {
+			store.batch().updateIssuerDescription(issuer).addSchemeManager(manager).commit();
+			fail("Adding an existing scheme manager should fail");
+		} catch (InfoException e) {
+			assertTrue("Failed batch should not modify the store", store.getSnapshot() == snapshot);
+		}
+
+		DescriptionStore.Snapshot next = store.batch().updateIssuerDescription(issuer).commit();
+		assertTrue(next == store.getSnapshot() && next.getVersion() == snapshot.getVersion() + 1);
+		assertTrue(next.getIssuerDescriptions().equals(snapshot.getIssuerDescriptions()));
+	}
+
+	@Test
+	public void testConfigurationSnapshot() throws Exception {
+		URI original = IRMACryptoTest.class.getClassLoader().getResource("test_configuration/").toURI();
+		final Path source = Paths.get(original);
+		final Path core = Files.createTempDirectory("irma_configuration");
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(core.resolve(source.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.copy(file, core.resolve(source.relativize(file).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Files.write(core.resolve("irma-demo/index"), "1234 irma-demo/description.xml\n".getBytes());
+		Files.write(core.resolve("pbdf/index"), "5678 pbdf/description.xml\n".getBytes());
+		File snapshot = core.resolve("snapshot").toFile();
+
+		try {
+			assertFalse(ConfigurationSnapshot.initialize(core.toUri(), snapshot));
+			DescriptionStore.Snapshot parsed = DescriptionStore.getInstance().getSnapshot();
+			assertTrue("Snapshot should be used when nothing changed",
+					ConfigurationSnapshot.initialize(core.toUri(), snapshot));
+
+			DescriptionStore.Snapshot loaded = DescriptionStore.getInstance().getSnapshot();
+			assertTrue(loaded.getSchemeManagers().keySet().equals(parsed.getSchemeManagers().keySet())
+					&& loaded.getIssuerDescriptions().keySet().equals(parsed.getIssuerDescriptions().keySet())
+					&& loaded.getCredentialDescriptions().keySet().equals(parsed.getCredentialDescriptions().keySet()));
+			CredentialIdentifier ageLower = new CredentialIdentifier("irma-demo.MijnOverheid.ageLower");
+			CredentialDescription loadedCd = loaded.getCredentialDescriptions().get(ageLower);
+			CredentialDescription parsedCd = parsed.getCredentialDescriptions().get(ageLower);
+			assertTrue("Descriptions should survive the snapshot",
+					loadedCd.getAttributeNames().equals(parsedCd.getAttributeNames())
+					&& loadedCd.getIssuerDescription().getName().getTranslation("en")
+							.equals(parsedCd.getIssuerDescription().getName().getTranslation("en")));
+
+			IssuerIdentifier mo = new IssuerIdentifier("irma-demo.MijnOverheid");
+			IdemixPublicKey loadedPk = IdemixKeyStore.getInstance().getPublicKey(mo, 1);
+			assertTrue(loadedPk.getGeneratorsR().equals(pk.getGeneratorsR())
+					&& loadedPk.getExpiryDate().equals(pk.getExpiryDate()));
+			assertTrue(IdemixKeyStore.getInstance().containsSecretKey(mo, 1));
+
+			CLSignature signature = CLSignature.signMessageBlock(sk, loadedPk, attributes);
+			assertTrue("Signature should verify against the key from the snapshot", signature.verify(pk, attributes));
+
+			Files.write(core.resolve("pbdf/index"), "9abc pbdf/description.xml\n".getBytes());
+			assertFalse("Snapshot should not be used after an update",
+					ConfigurationSnapshot.initialize(core.toUri(), snapshot));
+
+			// As if a serializer saved a downloaded key, outside of the updater
+			Path key = core.resolve("irma-demo/MijnOverheid/PublicKeys/1.xml");
+			Files.setLastModifiedTime(key, FileTime.fromMillis(Files.getLastModifiedTime(key).toMillis() + 60000));
+			assertFalse("Snapshot should not be used after a file was saved into the configuration",
+					ConfigurationSnapshot.initialize(core.toUri(), snapshot));
+			assertTrue(ConfigurationSnapshot.initialize(core.toUri(), snapshot));
+		} finally {
+			DescriptionStore.initialize(new DescriptionStoreDeserializer(original));
+			IdemixKeyStore.initialize(new IdemixKeyStoreDeserializer(original));
+		}
+	}
+
+	@Test
+	public void testLazyStores() throws Exception {
+		URI core = IRMACryptoTest.class.getClassLoader().getResource("test_configuration/").toURI();
+		IssuerIdentifier mo = new IssuerIdentifier("irma-demo.MijnOverheid");
+		CredentialIdentifier ageLower = new CredentialIdentifier("irma-demo.MijnOverheid.ageLower");
+
+		try {
+			DescriptionStore.initializeLazily(new DescriptionStoreDeserializer(core), 1);
+			IdemixKeyStore.initializeLazily(new IdemixKeyStoreDeserializer(core), 1);
+			assertTrue(DescriptionStore.getInstance().isLazy() && IdemixKeyStore.getInstance().isLazy());
+			assertTrue(DescriptionStore.getInstance().getSnapshot().getCredentialDescriptions().isEmpty());
+
+			assertTrue(DescriptionStore.getInstance().getCredentialDescription(ageLower) != null);
+			assertTrue(DescriptionStore.getInstance().getIssuerDescription(mo) != null);
+			try {
+				DescriptionStore.getInstance().addIssuerDescription(
+						DescriptionStore.getInstance().getIssuerDescription(mo));
+				fail("Adding an issuer that is in the lazy index should fail");
+			} catch (InfoException e) { /* Expected */ }
+			assertTrue(ageLower.equals(DescriptionStore.getInstance().hashToCredentialIdentifier(
+					Arrays.copyOfRange(MessageDigest.getInstance("SHA-256").digest(ageLower.toString().getBytes()), 0, 16))));
+
+			IdemixPublicKey lazyPk = IdemixKeyStore.getInstance().getLatestPublicKey(mo);
+			assertTrue(lazyPk.getGeneratorsR().equals(pk.getGeneratorsR()));
+			assertTrue(IdemixKeyStore.getInstance().containsSecretKey(mo, lazyPk.getCounter()));
+
+			CLSignature signature = CLSignature.signMessageBlock(
+					IdemixKeyStore.getInstance().getLatestSecretKey(mo), lazyPk, attributes);
+			assertTrue(signature.verify(pk, attributes));
+
+			IdemixKeyStore.Snapshot before = IdemixKeyStore.getInstance().getSnapshot();
+			int counter = IdemixKeyStore.getInstance().getKeyCounter(mo);
+			IdemixKeyStore.getInstance().removePublicKeys(mo);
+			assertFalse(IdemixKeyStore.getInstance().containsPublicKey(mo, counter));
+			assertTrue("Snapshots should contain the lazily indexed keys, unaffected by later modifications",
+					before.containsPublicKey(mo, counter) && before.getPublicKey(mo, counter) != null
+					&& before.getKeyCounter(mo) == counter);
+		} finally {
+			DescriptionStore.initialize(new DescriptionStoreDeserializer(core));
+			IdemixKeyStore.initialize(new IdemixKeyStoreDeserializer(core));
+		}
+	}
+}
@@ -33,8 +33,29 @@ package org.irmacard.credentials.info.config;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 import org.irmacard.credentials.info.*;
 import org.junit.Test;
@@ -60,6 +81,27 @@ public class TestBasicParse {
 		System.out.println(cd);
 	}
 
+	@Test
+	public void parseNestedElements() throws InfoException {
+		CredentialDescription cd = new CredentialDescription(core.resolve(
+				"irma-demo/MijnOverheid/Issues/ageLower/description.xml"));
+		if (!cd.getName().getTranslation("en").equals("Lower Age limits")
+				|| !cd.getShortName().getTranslation("en").equals("Age (lower)"))
+			fail("Credential name overwritten by attribute names");
+		if (cd.getAttributes().size() != 4 || !cd.getAttributeNames().get(0).equals("over12")
+				|| !cd.getAttributes().get(0).getDescription().getTranslation("en").equals("True if you are over 12"))
+			fail("Attributes parsed incorrectly");
+		if (!cd.shouldBeSingleton())
+			fail("ShouldBeSingleton parsed incorrectly");
+
+		try {
+			new CredentialDescription("<IssueSpecification version=\"4\"><Name><en>x</en></Name></IssueSpecification>");
+			fail("Missing tags not detected");
+		} catch (InfoException e) {
+			// Expected
+		}
+	}
+
 	@Test
 	public void initializeDescriptionStore() throws InfoException {
 		DescriptionStore.initialize(new DescriptionStoreDeserializer(core));
@@ -96,4 +138,118 @@ public class TestBasicParse {
 		System.out.println(cd.getIssuerDescription());
 	}
 
+	@Test
+	public void singleFlight() throws Exception {
+		final SingleFlight<String, Integer> flight = new SingleFlight<>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch arrived = new CountDownLatch(8);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Integer>> results = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override public Integer call() throws Exception {
+						arrived.countDown();
+						return flight.run("key", new SingleFlight.Call<Integer>() {
+							@Override public Integer call() throws IOException, InfoException {
+								try {
+									// Give all threads the chance to join this call
+									arrived.await();
+									Thread.sleep(100);
+								} catch (InterruptedException e) {
+									throw new IOException(e);
+								}
+								return calls.incrementAndGet();
+							}
+						});
+					}
+				}));
+			}
+			for (Future<Integer> result : results)
+				if (result.get() != 1)
+					fail("Concurrent calls were not coalesced");
+		} finally {
+			executor.shutdown();
+		}
+		if (flight.size() != 0)
+			fail("Completed call still in flight");
+	}
+
+	@Test
+	public void downloadCache() throws Exception {
+		final AtomicInteger requests = new AtomicInteger();
+		final AtomicInteger notModified = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				if (!exchange.getRequestURI().getPath().equals("/description.xml")) {
+					exchange.sendResponseHeaders(404, -1);
+				} else if ("\"1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					exchange.getResponseHeaders().add("ETag", "\"1\"");
+					exchange.sendResponseHeaders(200, 5);
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write("hello".getBytes());
+					}
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+
+		File directory = Files.createTempDirectory("downloads").toFile();
+		String url = "http://127.0.0.1:" + server.getAddress().getPort();
+		DownloadCache cache = new DownloadCache(directory, 60000);
+		NetHttpTransport transport = new NetHttpTransport();
+
+		try {
+			for (int i = 0; i < 2; i++) {
+				try {
+					cache.get(transport.createRequestFactory(), url + "/missing.xml");
+					fail("Missing file not detected");
+				} catch (FileNotFoundException e) {
+					// Expected
+				}
+			}
+			if (requests.get() != 1)
+				fail("Missing file was requested again");
+
+			// A new cache on the same directory revalidates what the previous one downloaded
+			cache.get(transport.createRequestFactory(), url + "/description.xml");
+			byte[] contents = new DownloadCache(directory, 60000)
+					.get(transport.createRequestFactory(), url + "/description.xml");
+			if (!Arrays.equals(contents, "hello".getBytes()) || notModified.get() != 1)
+				fail("File was not revalidated");
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void downloadDeadline() throws Exception {
+		Future<String> fast = DescriptionStore.submitDownload(new Callable<String>() {
+			@Override public String call() {
+				return "done";
+			}
+		}, 10000);
+		if (!fast.get().equals("done"))
+			fail("Wrong result");
+
+		Future<String> slow = DescriptionStore.submitDownload(new Callable<String>() {
+			@Override public String call() throws InterruptedException {
+				Thread.sleep(10000);
+				return "done";
+			}
+		}, 100);
+		try {
+			slow.get(5, TimeUnit.SECONDS);
+			fail("Deadline not enforced");
+		} catch (CancellationException e) {
+			// Expected
+		}
+	}
 }
@@ -0,0 +1,124 @@
+package org.irmacard.credentials.info.updater;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UpdaterTest {
+    // Paths relative to the scheme manager, mapped to their contents
+    private final Map<String, byte[]> remote = new HashMap<>();
+    private KeyPair keyPair;
+
+    private void publish(String... files) throws Exception {
+        remote.clear();
+        StringBuilder index = new StringBuilder();
+        for (int i = 0; i < files.length; i += 2) {
+            remote.put(files[i], files[i + 1].getBytes());
+            index.append(DigestUtils.sha256Hex(files[i + 1])).append(" irma-demo/").append(files[i]).append('\n');
+        }
+
+        Signature signer = Signature.getInstance("SHA256withECDSA", "BC");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(index.toString().getBytes());
+        remote.put("index", index.toString().getBytes());
+        remote.put("index.sig", signer.sign());
+    }
+
+    private static int countLeftovers(Path dir) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, ".irma-demo*")) {
+            for (Path ignored : stream)
+                count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", "BC");
+        generator.initialize(new ECGenParameterSpec("prime256v1"));
+        keyPair = generator.generateKeyPair();
+        String pk = "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.encodeBase64String(keyPair.getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----\n";
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/irma-demo/", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                byte[] contents = remote.get(exchange.getRequestURI().getPath().substring("/irma-demo/".length()));
+                if (contents == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, contents.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(contents);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        Path local = Files.createTempDirectory("irma_configuration");
+        Path manager = local.resolve("irma-demo");
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/irma-demo";
+
+        try {
+            publish("description.xml", "<SchemeManager/>", "Issuer/description.xml", "<Issuer/>");
+            assertTrue(Updater.update(url, local.toString(), pk));
+            assertArrayEquals("<Issuer/>".getBytes(), Files.readAllBytes(manager.resolve("Issuer/description.xml")));
+            assertArrayEquals(remote.get("index"), Files.readAllBytes(manager.resolve(Updater.INDEX_FILE)));
+
+            // Files that are not in the index (e.g. private keys) are kept
+            Files.createDirectories(manager.resolve("Issuer/PrivateKeys"));
+            Files.write(manager.resolve("Issuer/PrivateKeys/0.xml"), "secret".getBytes());
+            assertFalse("Nothing should change", Updater.update(url, local.toString(), pk));
+
+            publish("description.xml", "<SchemeManager/>", "Issuer/description.xml", "<Issuer version=\"2\"/>");
+            assertTrue(Updater.update(url, local.toString(), pk));
+            assertArrayEquals("<Issuer version=\"2\"/>".getBytes(),
+                    Files.readAllBytes(manager.resolve("Issuer/description.xml")));
+            assertTrue(Files.exists(manager.resolve("Issuer/PrivateKeys/0.xml")));
+            assertTrue(countLeftovers(local) == 0);
+
+            // A file that does not match the index must not end up in the tree
+            publish("description.xml", "<SchemeManager/>", "Issuer/description.xml", "<Issuer version=\"3\"/>");
+            remote.put("Issuer/description.xml", "<Issuer version=\"4\"/>".getBytes());
+            try {
+                Updater.update(url, local.toString(), pk);
+                fail("Hash mismatch not detected");
+            } catch (VerificationFailedException e) {
+                // Expected
+            }
+            assertArrayEquals("<Issuer version=\"2\"/>".getBytes(),
+                    Files.readAllBytes(manager.resolve("Issuer/description.xml")));
+            assertTrue(countLeftovers(local) == 0);
+        } finally {
+            server.stop(0);
+        }
+    }
+}